@@ -0,0 +1,70 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.couchbase.client.java.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.curity.identityserver.sdk.attribute.AccountAttributes;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compares decoding an account query row through {@link JsonObject} and a map with decoding it directly.
+ * Run with {@code ./gradlew jmh}; the gc profiler reports the allocation per row as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowDecodingBenchmark {
+
+    private final CurityJsonSerializer serializer = CurityJsonSerializer.create();
+
+    private final byte[] row = """
+            {
+              "userName": "morre",
+              "name": {"givenName": "Morre", "familyName": "Tentixo"},
+              "displayName": "Morre Tentixo",
+              "active": true,
+              "emails": [{"value": "morre@tentixo.com", "primary": true}],
+              "phoneNumbers": [{"value": "+375295672678", "primary": true}],
+              "addresses": [{"streetAddress": "Main street 1", "locality": "Stockholm", "country": "SE"}],
+              "locale": "sv-SE",
+              "timezone": "Europe/Stockholm"
+            }
+            """.getBytes(UTF_8);
+
+    @Benchmark
+    public AccountAttributes viaJsonObjectAndMap() {
+        return AccountAttributes.fromMap(serializer.deserialize(JsonObject.class, row).toMap());
+    }
+
+    @Benchmark
+    public AccountAttributes direct() {
+        return serializer.deserialize(AccountAttributes.class, row);
+    }
+}
@@ -14,29 +14,68 @@
 
 package com.tentixo;
 
+import com.couchbase.client.core.error.CasMismatchException;
 import com.couchbase.client.core.error.CouchbaseException;
+import com.couchbase.client.core.error.DocumentExistsException;
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.core.error.PreparedStatementFailureException;
+import com.couchbase.client.core.retry.reactor.Retry;
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.*;
+import com.couchbase.client.java.codec.TypeRef;
 import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.LookupInSpec;
+import com.couchbase.client.java.kv.MutateInOptions;
+import com.couchbase.client.java.kv.MutateInSpec;
+import com.couchbase.client.java.kv.MutationResult;
+import com.couchbase.client.java.kv.ReplaceOptions;
+import com.couchbase.client.java.kv.ScanOptions;
+import com.couchbase.client.java.kv.ScanResult;
+import com.couchbase.client.java.kv.ScanType;
 import com.couchbase.client.java.query.QueryOptions;
+import com.couchbase.client.java.query.QueryResult;
 import com.couchbase.client.java.query.QueryScanConsistency;
 import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration;
+import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration.AccountEnumeration;
+import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration.ScanConsistency;
 import com.tentixo.configuration.DBSetupRunners;
+import com.tentixo.query.Keyspace;
+import com.tentixo.query.MutationTracker;
+import com.tentixo.query.Page;
+import com.tentixo.query.PageCheckpoints;
+import com.tentixo.query.PageCursor;
+import com.tentixo.query.Projection;
+import com.tentixo.query.Projections;
+import com.tentixo.query.Statement;
+import com.tentixo.query.StatementRegistry;
+import com.tentixo.token.TokenCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import se.curity.identityserver.sdk.Nullable;
 import se.curity.identityserver.sdk.attribute.AccountAttributes;
 import se.curity.identityserver.sdk.data.query.ResourceQuery.AttributesEnumeration;
 import se.curity.identityserver.sdk.data.query.ResourceQueryResult;
 import se.curity.identityserver.sdk.plugin.ManagedObject;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
+import java.util.Objects;
+import java.util.stream.Stream;
 
 import static com.tentixo.CouchbaseUserAccountDataAccessProvider.ACCOUNT_COLLECTION_NAME;
-import static java.util.Optional.ofNullable;
+import static com.tentixo.token.CouchbaseDelegationDataAccessProvider.DELEGATION_COLLECTION_NAME;
+import static com.tentixo.token.CouchbaseNonceDataAccessProvider.NONCE_COLLECTION_NAME;
+import static com.tentixo.token.CouchbaseTokenDataAccessProvider.TOKEN_COLLECTION_NAME;
+import static com.tentixo.query.Projection.toSubDocumentPath;
 
 public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProviderConfiguration> {
 
@@ -51,16 +90,51 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
 
     private Collection collection;
 
-    private final String GET_BY_PARAMETER_QUERY = "SELECT `%s`.* FROM `%s`.%s.`%s`" +
-                                                  " WHERE %s = \"%s\" AND CONTAINS(META().id, \"node::user::personal_info::\")";
-    private final String UPDATE_PASSWORD_QUERY = "UPDATE `%s`.%s.`%s` SET `password` = \"%s\"" +
-                                                 " WHERE META().id = \"node::user::personal_info::%s\"";
-    private final String FIND_ALL_PAGEABLE_QUERY = "SELECT `%s`.* FROM `%s`.%s.`%s`" +
-                                                   " WHERE CONTAINS(META().id,\"node::user::personal_info::\") OFFSET %s LIMIT %s";
-    private final String FIND_ALL_QUERY = "SELECT `%s`.* FROM `%s`.%s.`%s`" +
-                                          " WHERE META().id = \"node::user::personal_info::%s\"";
+    private Keyspace accountKeyspace;
 
-    public static final QueryOptions QUERY_OPTIONS = QueryOptions.queryOptions().scanConsistency(QueryScanConsistency.REQUEST_PLUS);
+    private ReactiveCouchbaseExecutor reactive;
+
+    private LookupDocuments lookups;
+
+    private TokenCache tokenCache;
+
+    private SessionCache sessionCache;
+
+    @Nullable
+    private SessionTouchQueue sessionTouchQueue;
+
+    private MissingLookupCache missingLookups;
+
+    private DelegationCounters delegationCounters;
+
+    private Retention retention;
+
+    private DeadRecordSweeper deadRecordSweeper;
+
+    private final StatementRegistry statements = new StatementRegistry();
+
+    private final MutationTracker mutations = new MutationTracker();
+
+    private final Projections projections = new Projections();
+
+    private final PageCheckpoints<String> pageCheckpoints =
+            new PageCheckpoints<>(MAX_PAGE_CHECKPOINTS, PAGE_CHECKPOINT_TIME_TO_LIVE);
+
+    public static final String ACCOUNT_KEY_PREFIX = "node::user::personal_info::";
+
+    private static final int MAX_CAS_RETRIES = 5;
+
+    private static final int MAX_PAGE_CHECKPOINTS = 1024;
+
+    private static final Duration PAGE_CHECKPOINT_TIME_TO_LIVE = Duration.ofMinutes(5);
+
+    private static final TypeRef<Map<String, Object>> MAP_TYPE = new TypeRef<>() {
+    };
+
+    // The account attributes with pointer documents, when lookup documents are maintained
+    private static final Map<Parameters, LookupDocuments.Kind> POINTER_KINDS =
+            new EnumMap<>(Map.of(Parameters.EMAIL, LookupDocuments.Kind.EMAIL,
+                    Parameters.PHONE, LookupDocuments.Kind.PHONE));
 
     public CouchbaseExecutor(CouchbaseDataAccessProviderConfiguration configuration) {
         super(configuration);
@@ -97,9 +171,35 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
                 bucket.collections().createScope(configuration.getScope());
                 this.scope = bucket.scope(configuration.getScope());
             }
-            DBSetupRunners setupRunners = new DBSetupRunners();
+            DBSetupRunners setupRunners = new DBSetupRunners(configuration, statements);
             setupRunners.run(cluster, bucket, scope);
             this.collection = scope.collection(ACCOUNT_COLLECTION_NAME);
+            this.accountKeyspace = Keyspace.of(collection);
+            this.reactive = new ReactiveCouchbaseExecutor(cluster.reactive(), scope.reactive(), configuration,
+                    statements, mutations, this::queryOptions);
+            this.lookups = new LookupDocuments(reactive, configuration.getMaintainLookupDocuments());
+            this.tokenCache = new TokenCache(configuration.getCacheTokens(), configuration.getTokenCacheMaximumSize(),
+                    Duration.ofSeconds(configuration.getTokenCacheTimeToLive()));
+            this.sessionCache = new SessionCache(configuration.getCacheSessions(),
+                    configuration.getSessionCacheMaximumBytes(),
+                    Duration.ofSeconds(configuration.getSessionCacheTimeToLive()));
+            this.missingLookups = new MissingLookupCache(configuration.getCacheMissingLookups(),
+                    Duration.ofSeconds(configuration.getMissingLookupCacheTimeToLive()));
+            this.delegationCounters = new DelegationCounters(reactive,
+                    Keyspace.of(scope.collection(DELEGATION_COLLECTION_NAME)),
+                    configuration.getMaintainDelegationCounters(),
+                    Duration.ofSeconds(configuration.getDelegationCounterReconciliationInterval()));
+            this.retention = Retention.of(configuration);
+            this.deadRecordSweeper = new DeadRecordSweeper(reactive, sweepTargets(),
+                    configuration.getSweepDeadRecords(), Duration.ofSeconds(configuration.getSweepInterval()),
+                    configuration.getSweepBatchSize().intValue(), configuration.getSweepMaxDeletionsPerSecond());
+            if (configuration.getSessionTouchWindow() > 0) {
+                this.sessionTouchQueue = new SessionTouchQueue(
+                        (id, expiresAt) -> CouchbaseSessionDataAccessProvider.slideExpiration(reactive,
+                                retention, id, expiresAt),
+                        Duration.ofMillis(configuration.getSessionTouchWindow()),
+                        configuration.getMaxConcurrency().intValue());
+            }
 
 
 
@@ -114,6 +214,11 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
      */
     @Override
     public void close() {
+        if (sessionTouchQueue != null) {
+            sessionTouchQueue.close();
+        }
+        delegationCounters.close();
+        deadRecordSweeper.close();
         bucket = null;
         scope = null;
         collection = null;
@@ -123,17 +228,14 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
 
     /**
      * Executes a query in the cluster and returns the result as a list of maps.
-     * Each map represents a row in the result.
+     * Each map represents a row in the result. The query is run with the configured lookup consistency, and since
+     * it may read any collection, with {@code AT_PLUS} it waits for the writes to all of them.
      *
      * @param query the query to execute
      * @return a list of maps representing the rows in the result
      */
     public List<Map<String, Object>> executeQuery(String query) {
-        final var result = cluster.query(query, QUERY_OPTIONS);
-        return result.rowsAsObject()
-                .stream()
-                .map(JsonObject::toMap)
-                .toList();
+        return cluster.query(query, queryOptions(Statement.Kind.LOOKUP, null)).rowsAs(MAP_TYPE);
     }
 
     /**
@@ -149,8 +251,117 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
                 .orElse(new HashMap<>());
     }
 
+    /**
+     * Executes a registered statement as a prepared query with the given named parameters.
+     * If the prepared plan can no longer be used, the statement is prepared again and retried once.
+     * The scan consistency is the one configured for the {@link Statement.Kind kind} of the statement.
+     *
+     * @param statement  the statement to execute
+     * @param keyspace   the keyspace the statement is rendered for
+     * @param parameters the named parameters of the statement
+     * @param arguments  statement specific template arguments
+     * @return a list of maps representing the rows in the result
+     */
+    public List<Map<String, Object>> executeStatement(Statement statement, Keyspace keyspace, JsonObject parameters,
+                                                      Object... arguments) {
+        return queryStatement(statement, keyspace, parameters, MAP_TYPE, arguments);
+    }
+
+    /**
+     * Executes a registered statement as a prepared query and decodes each row into the given type.
+     *
+     * @param statement  the statement to execute
+     * @param keyspace   the keyspace the statement is rendered for
+     * @param parameters the named parameters of the statement
+     * @param type       the type to decode rows into
+     * @param arguments  statement specific template arguments
+     * @return the decoded rows
+     */
+    public <T> List<T> queryStatement(Statement statement, Keyspace keyspace, JsonObject parameters, Class<T> type,
+                                      Object... arguments) {
+        return prepared(statement, keyspace, parameters, arguments).rowsAs(type);
+    }
+
+    /**
+     * Executes a registered statement as a prepared query and decodes each row into the given generic type.
+     *
+     * @param statement  the statement to execute
+     * @param keyspace   the keyspace the statement is rendered for
+     * @param parameters the named parameters of the statement
+     * @param type       the type to decode rows into
+     * @param arguments  statement specific template arguments
+     * @return the decoded rows
+     */
+    public <T> List<T> queryStatement(Statement statement, Keyspace keyspace, JsonObject parameters, TypeRef<T> type,
+                                      Object... arguments) {
+        return prepared(statement, keyspace, parameters, arguments).rowsAs(type);
+    }
+
+    private QueryResult prepared(Statement statement, Keyspace keyspace, JsonObject parameters, Object... arguments) {
+        var query = statements.get(statement, keyspace, arguments);
+        try {
+            return cluster.query(query, preparedOptions(statement, keyspace, parameters));
+        } catch (PreparedStatementFailureException e) {
+            _logger.debug("Prepared statement {} failed, preparing it again", statement);
+            statements.recordReprepare();
+            return cluster.query(query, preparedOptions(statement, keyspace, parameters));
+        }
+    }
+
+    private Map<String, Object> executeStatementForSingleResult(Statement statement, JsonObject parameters,
+                                                                Object... arguments) {
+        return executeStatement(statement, accountKeyspace, parameters, arguments).stream()
+                .findFirst()
+                .orElse(new HashMap<>());
+    }
+
+    private QueryOptions preparedOptions(Statement statement, Keyspace keyspace, JsonObject parameters) {
+        return queryOptions(statement.getKind(), keyspace.collection())
+                .adhoc(false)
+                .parameters(parameters);
+    }
+
+    /**
+     * Creates query options with the scan consistency configured for the given kind of statement.
+     * With {@code AT_PLUS} the query waits for the index to contain the mutations of the collection made through
+     * this executor, and falls back to not bounded while there are none.
+     *
+     * @param kind           the kind of statement to create options for
+     * @param collectionName the collection the statement reads, or null to wait for the mutations of all of them
+     * @return the query options
+     */
+    public QueryOptions queryOptions(Statement.Kind kind, @Nullable String collectionName) {
+        var options = QueryOptions.queryOptions();
+        var consistency = switch (kind) {
+            case LOOKUP -> configuration.getLookupScanConsistency();
+            case LISTING -> configuration.getListingScanConsistency();
+            case CONSISTENT -> ScanConsistency.REQUEST_PLUS;
+        };
+        if (consistency == ScanConsistency.REQUEST_PLUS) {
+            options.scanConsistency(QueryScanConsistency.REQUEST_PLUS);
+        } else if (consistency == ScanConsistency.AT_PLUS) {
+            (collectionName == null ? mutations.snapshot() : mutations.snapshot(collectionName))
+                    .ifPresent(options::consistentWith);
+        }
+        return options;
+    }
+
+    /**
+     * Records the mutation token of a key-value write to the accounts, so that following {@code AT_PLUS} queries
+     * observe it.
+     *
+     * @param result the result of the mutation
+     * @return the given result
+     */
+    public MutationResult trackMutation(MutationResult result) {
+        mutations.track(ACCOUNT_COLLECTION_NAME, result);
+        return result;
+    }
+
     /**
      * Retrieves an AccountAttributes object based on the specified parameter and value.
+     * With SCIM parameter names, emails and phone numbers match when any of the account's values matches.
+     * When lookup documents are maintained, values with pointer documents are first looked up through them.
      *
      * @param parameter             The parameter to filter the search by.
      * @param value                 The value to search for.
@@ -160,14 +371,23 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
     @Nullable
     public AccountAttributes getByParameter(Parameters parameter, String value,
                                             AttributesEnumeration attributesEnumeration) {
-        var result = executeQueryForSingleResult(
-                String.format(GET_BY_PARAMETER_QUERY, ACCOUNT_COLLECTION_NAME, configuration.getBucket(),
-                        configuration.getScope(), ACCOUNT_COLLECTION_NAME, getParameterName(parameter), value));
-        ofNullable(attributesEnumeration)
-                .ifPresent(enumeration -> {
-                    Set<String> attributesToReturn = enumeration.getAttributes();
-                    result.keySet().retainAll(attributesToReturn);
-                });
+        if (parameter == Parameters.USERNAME) {
+            return getByUserName(value, attributesEnumeration);
+        }
+        var projection = projections.get(attributesEnumeration);
+        var multiValued = configuration.getUseScimParameterNames() && parameter.isScimMultiValued();
+        var ignoreCase = ignoresCase(parameter);
+        var normalizedValue = ignoreCase ? value.toLowerCase(Locale.ROOT) : value;
+        if (POINTER_KINDS.containsKey(parameter) && lookups.isEnabled()) {
+            var account = getByPointer(parameter, normalizedValue, projection);
+            if (account != null) {
+                return account;
+            }
+        }
+        var result = projection.apply(executeStatementForSingleResult(
+                Statement.accountByParameter(multiValued, ignoreCase),
+                JsonObject.create().put("value", normalizedValue).put("prefix", ACCOUNT_KEY_PREFIX),
+                getParameterName(parameter), projection.selectList(accountKeyspace)));
 
         if (result.isEmpty()) {
             return null;
@@ -176,6 +396,153 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
         return wrapIntoAttributes(result);
     }
 
+    /**
+     * Retrieves an account by username with a key-value lookup.
+     * Accounts are stored under a key derived from the username, so no query or index service is involved.
+     * When only some attributes are included, just those paths are fetched with a sub-document lookup.
+     *
+     * @param userName              The username of the account.
+     * @param attributesEnumeration The enumeration of attributes to include in the result.
+     * @return The AccountAttributes object for the username, or null if no account is found.
+     */
+    @Nullable
+    private AccountAttributes getByUserName(String userName, @Nullable AttributesEnumeration attributesEnumeration) {
+        var key = ACCOUNT_KEY_PREFIX + userName;
+        var projection = projections.get(attributesEnumeration);
+        Map<String, Object> result;
+        try {
+            if (projection.fitsLookupIn()) {
+                result = projection.fromLookup(collection.lookupIn(key, projection.lookupSpecs()));
+            } else {
+                result = projection.apply(collection.get(key).contentAs(MAP_TYPE));
+            }
+        } catch (DocumentNotFoundException e) {
+            _logger.debug("Account not found: {}", userName);
+            return null;
+        }
+
+        if (result.isEmpty()) {
+            return null;
+        }
+
+        return wrapIntoAttributes(result);
+    }
+
+    /**
+     * Retrieves an account through the pointer document of one of its values, with two key-value reads.
+     * When only some attributes are included, just those paths and the pointed attribute are fetched with a
+     * sub-document lookup.
+     *
+     * @return the account, or null if there is no pointer or it is stale
+     */
+    @Nullable
+    private AccountAttributes getByPointer(Parameters parameter, String value, Projection projection) {
+        var key = lookups.target(POINTER_KINDS.get(parameter), value).block();
+        if (key == null) {
+            return null;
+        }
+        var name = getParameterName(parameter);
+        Map<String, Object> result;
+        Object pointed;
+        try {
+            // The pointed attribute is read last, after the projected ones, to check that the pointer is current
+            if (projection.fitsLookupIn() && projection.lookupSpecs().size() < Projection.MAX_LOOKUP_IN_SPECS) {
+                var lookupSpecs = new ArrayList<>(projection.lookupSpecs());
+                lookupSpecs.add(LookupInSpec.get(toSubDocumentPath(name)));
+                var lookupResult = collection.lookupIn(key, lookupSpecs);
+                var index = lookupSpecs.size() - 1;
+                pointed = lookupResult.exists(index) ? lookupResult.contentAs(index, Object.class) : null;
+                result = projection.fromLookup(lookupResult);
+            } else {
+                var account = collection.get(key).contentAs(MAP_TYPE);
+                pointed = account.get(name);
+                result = projection.apply(account);
+            }
+        } catch (DocumentNotFoundException e) {
+            _logger.debug("Pointer to missing account: {}", key);
+            return null;
+        }
+        if (!pointerValuesOf(parameter, Collections.singletonMap(name, pointed)).contains(value)) {
+            _logger.debug("Stale pointer to account: {}", key);
+            return null;
+        }
+        return result.isEmpty() ? null : wrapIntoAttributes(result);
+    }
+
+    /**
+     * Returns the values of an attribute of an account, or of the attributes to update it with, as they are keyed
+     * in pointer documents.
+     */
+    private List<String> pointerValuesOf(Parameters parameter, Map<String, ?> attributes) {
+        var value = attributes.get(getParameterName(parameter));
+        Stream<?> values = value instanceof List<?> list
+                ? list.stream().map(item -> item instanceof Map<?, ?> map ? map.get("value") : item)
+                : Stream.of(value);
+        return values.filter(String.class::isInstance)
+                .map(String.class::cast)
+                .map(item -> ignoresCase(parameter) ? item.toLowerCase(Locale.ROOT) : item)
+                .toList();
+    }
+
+    private boolean isPointerAttribute(String name) {
+        return lookups.isEnabled()
+               && POINTER_KINDS.keySet().stream().anyMatch(parameter -> getParameterName(parameter).equals(name));
+    }
+
+    /**
+     * Reads the attributes of a stored account that have pointer documents.
+     *
+     * @return the attributes, empty if the account does not exist or lookup documents are not maintained
+     */
+    private Map<String, Object> storedPointerAttributes(String key) {
+        if (!lookups.isEnabled()) {
+            return Map.of();
+        }
+        var names = POINTER_KINDS.keySet().stream().map(this::getParameterName).toList();
+        return reactive.lookupIn(ACCOUNT_COLLECTION_NAME, key,
+                        names.stream().map(name -> LookupInSpec.get(toSubDocumentPath(name))).toList())
+                .map(result -> {
+                    Map<String, Object> attributes = new HashMap<>();
+                    for (int i = 0; i < names.size(); i++) {
+                        if (result.exists(i)) {
+                            attributes.put(names.get(i), result.contentAs(i, Object.class));
+                        }
+                    }
+                    return attributes;
+                })
+                .defaultIfEmpty(Map.of())
+                .block();
+    }
+
+    /**
+     * Brings the pointer documents of an account in line with a change of its attributes: pointers of values the
+     * account no longer holds are removed, if they still point to it, and its current values are pointed to it.
+     *
+     * @param key      the key of the account
+     * @param previous the attributes with pointers before the change, for those that were changed
+     * @param applied  the attributes the change applied, or empty if the account was deleted
+     */
+    private void syncPointers(String key, Map<String, ?> previous, Map<String, ?> applied) {
+        if (!lookups.isEnabled()) {
+            return;
+        }
+        Flux.fromIterable(POINTER_KINDS.entrySet())
+                .flatMap(entry -> {
+                    var kind = entry.getValue();
+                    var values = pointerValuesOf(entry.getKey(), applied);
+                    var dropped = pointerValuesOf(entry.getKey(), previous).stream()
+                            .filter(value -> !values.contains(value))
+                            .toList();
+                    return Flux.merge(Flux.fromIterable(dropped).flatMap(value -> lookups.remove(kind, value, key)),
+                            Flux.fromIterable(values).flatMap(value -> lookups.put(kind, value, key, null)));
+                })
+                .blockLast();
+    }
+
+    private boolean ignoresCase(Parameters parameter) {
+        return configuration.getCaseInsensitiveEmailLookup() && parameter.supportsCaseInsensitiveLookup();
+    }
+
     /**
      * Retrieves the parameter name based on the configuration settings.
      * If the configuration has set to use SCIM parameter names, it will return the SCIM name of the parameter.
@@ -198,22 +565,36 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
      * @param password the new password
      */
     public void updatePassword(String username, String password) {
-        executeQuery(String.format(UPDATE_PASSWORD_QUERY, configuration.getBucket(), configuration.getScope(),
-                ACCOUNT_COLLECTION_NAME, password, username));
+        executeStatement(Statement.ACCOUNT_UPDATE_PASSWORD, accountKeyspace,
+                JsonObject.create().put("password", password).put("id", ACCOUNT_KEY_PREFIX + username));
     }
 
     /**
      * Creates a new AccountAttributes with the given accountAttributes data.
+     * The stored document is exactly the submitted data, so it is returned without reading it back.
+     * When insert-only creation is enabled, an existing account with the same username is not overwritten.
      *
      * @param accountAttributes The AccountAttributes object containing the data for the new account.
      * @return The created AccountAttributes object.
+     * @throws DocumentExistsException if insert-only creation is enabled and the username is taken.
      */
     public AccountAttributes create(AccountAttributes accountAttributes) {
-        this.collection.upsert("node::user::personal_info::" + accountAttributes.getUserName(), accountAttributes.toMap());
-        var createdEntity =
-                this.collection.get("node::user::personal_info::" + accountAttributes.getUserName())
-                        .contentAsObject().toMap();
-        return AccountAttributes.fromMap(createdEntity);
+        var key = ACCOUNT_KEY_PREFIX + accountAttributes.getUserName();
+        var document = accountAttributes.toMap();
+        // An account that is overwritten leaves the pointers of its values behind otherwise
+        Map<String, Object> previous = configuration.getInsertOnlyAccountCreation()
+                ? Map.of()
+                : storedPointerAttributes(key);
+        MutationResult result;
+        if (configuration.getInsertOnlyAccountCreation()) {
+            result = this.collection.insert(key, document);
+        } else {
+            result = this.collection.upsert(key, document);
+        }
+        trackMutation(result);
+        pageCheckpoints.invalidate(key);
+        syncPointers(key, previous, document);
+        return AccountAttributes.fromMap(document);
     }
 
     /**
@@ -222,11 +603,18 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
      * @param accountId the ID of the account to be deleted
      */
     public void delete(String accountId) {
-        this.collection.remove("node::user::personal_info::" + accountId);
+        var key = ACCOUNT_KEY_PREFIX + accountId;
+        var previous = storedPointerAttributes(key);
+        trackMutation(this.collection.remove(key));
+        pageCheckpoints.invalidate(key);
+        syncPointers(key, previous, Map.of());
     }
 
     /**
      * Retrieves a pageable list of resources from the database.
+     * Accounts are read in key order, starting from the closest known key before the offset, so walking the
+     * pages sequentially does not rescan the previous pages. When a scan is configured for enumeration, a first
+     * page that holds every account, such as a full export, is scanned instead.
      *
      * @param offset The starting index of the resources to retrieve.
      * @param limit  The maximum number of resources to retrieve.
@@ -234,17 +622,132 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
      * the total number of resources, the offset, and the limit.
      */
     public ResourceQueryResult findAllPageable(long offset, long limit) {
-        var rawResult = executeQuery(
-                String.format(FIND_ALL_PAGEABLE_QUERY, ACCOUNT_COLLECTION_NAME, configuration.getBucket(),
-                        configuration.getScope(), ACCOUNT_COLLECTION_NAME, offset, limit));
-        var accountAttributes =
-                rawResult
-                        .stream()
-                        .map(this::wrapIntoAttributes)
-                        .toList();
+        if (offset == 0 && configuration.getAccountEnumeration() != AccountEnumeration.QUERY) {
+            var scanned = scanAllAccounts(limit);
+            if (scanned != null) {
+                return new ResourceQueryResult(scanned, scanned.size(), offset, limit);
+            }
+        }
+        var checkpoint = pageCheckpoints.floor(offset);
+        var after = checkpoint.map(Map.Entry::getValue).orElse(ACCOUNT_KEY_PREFIX);
+        var skip = offset - checkpoint.map(Map.Entry::getKey).orElse(0L);
+        var rows = findAccountsAfter(after, skip, limit);
+        if (!rows.isEmpty()) {
+            pageCheckpoints.put(offset + rows.size(), rows.getLast().id());
+        }
+        var accountAttributes = rows.stream().map(AccountRow::account).toList();
         return new ResourceQueryResult(accountAttributes, accountAttributes.size(), offset, limit);
     }
 
+    /**
+     * Streams the ids of all accounts, for a full export, the way the account enumeration setting selects.
+     * The scans return the accounts in no particular order. The stream must be closed to cancel an export that
+     * is not read to the end.
+     *
+     * @return the account ids, without the key prefix
+     */
+    public Stream<String> streamAccountIds() {
+        if (configuration.getAccountEnumeration() == AccountEnumeration.QUERY) {
+            return queryAllAccounts().map(AccountAttributes::getUserName);
+        }
+        return scan(true).map(result -> result.id().substring(ACCOUNT_KEY_PREFIX.length()));
+    }
+
+    /**
+     * Streams all accounts, for a full export, the way the account enumeration setting selects.
+     * The scans return the accounts in no particular order. The stream must be closed to cancel an export that
+     * is not read to the end.
+     *
+     * @return the accounts
+     */
+    public Stream<AccountAttributes> streamAccounts() {
+        return switch (configuration.getAccountEnumeration()) {
+            case QUERY -> queryAllAccounts();
+            case SCAN_IDS -> Flux.fromStream(() -> scan(true))
+                    .map(ScanResult::id)
+                    .buffer(configuration.getScanBatchItemLimit().intValue())
+                    .concatMap(ids -> reactive.getAll(ACCOUNT_COLLECTION_NAME, ids, AccountAttributes.class))
+                    .toStream();
+            case SCAN_CONTENT -> scan(false).map(result -> result.contentAs(AccountAttributes.class));
+        };
+    }
+
+    /**
+     * Scans all accounts, if there are no more than the limit. Scans have no stable order, so a listing that does
+     * not fit in one page cannot be continued from a scan, and is left to the query service. With ids only
+     * scans, the accounts are only read once the ids are known to fit.
+     *
+     * @return the accounts, or null if there are more than the limit
+     */
+    @Nullable
+    private List<AccountAttributes> scanAllAccounts(long limit) {
+        var overflow = Math.min(limit, Long.MAX_VALUE - 1) + 1;
+        if (configuration.getAccountEnumeration() == AccountEnumeration.SCAN_CONTENT) {
+            try (var accounts = scan(false)) {
+                var scanned = accounts.limit(overflow)
+                        .map(result -> result.contentAs(AccountAttributes.class))
+                        .toList();
+                return scanned.size() > limit ? null : scanned;
+            }
+        }
+        List<String> ids;
+        try (var results = scan(true)) {
+            ids = results.limit(overflow).map(ScanResult::id).toList();
+        }
+        if (ids.size() > limit) {
+            return null;
+        }
+        return reactive.getAll(ACCOUNT_COLLECTION_NAME, ids, AccountAttributes.class).collectList().block();
+    }
+
+    /**
+     * Walks all pages of accounts in key order with the query service.
+     */
+    private Stream<AccountAttributes> queryAllAccounts() {
+        long batchSize = configuration.getScanBatchItemLimit();
+        return Stream.iterate(findPage(null, batchSize), Objects::nonNull,
+                        page -> page.nextCursor() == null ? null : findPage(page.nextCursor(), batchSize))
+                .flatMap(page -> page.items().stream());
+    }
+
+    /**
+     * Starts a prefix scan of the account keys, straight from the data service, without involving the query or
+     * index service. The partitions are scanned concurrently, so the results are in no particular order. The
+     * scan waits for the writes made through this executor.
+     */
+    private Stream<ScanResult> scan(boolean idsOnly) {
+        var options = ScanOptions.scanOptions()
+                .idsOnly(idsOnly)
+                .batchItemLimit(configuration.getScanBatchItemLimit().intValue());
+        mutations.snapshot(ACCOUNT_COLLECTION_NAME).ifPresent(options::consistentWith);
+        return collection.scan(ScanType.prefixScan(ACCOUNT_KEY_PREFIX), options);
+    }
+
+    /**
+     * Retrieves a page of accounts in key order.
+     *
+     * @param cursor The cursor returned with the previous page, or null to read the first page.
+     * @param limit  The maximum number of accounts to retrieve.
+     * @return The page, with a cursor for the next page if there may be more accounts.
+     * @throws IllegalArgumentException if the cursor is not a valid account page cursor
+     */
+    public Page<AccountAttributes> findPage(@Nullable String cursor, long limit) {
+        var after = cursor == null ? ACCOUNT_KEY_PREFIX : PageCursor.decode(cursor, ACCOUNT_KEY_PREFIX);
+        var rows = findAccountsAfter(after, 0, limit);
+        var nextCursor = !rows.isEmpty() && rows.size() == limit ? PageCursor.encode(rows.getLast().id()) : null;
+        return new Page<>(rows.stream().map(AccountRow::account).toList(), nextCursor);
+    }
+
+    private List<AccountRow> findAccountsAfter(String after, long skip, long limit) {
+        return queryStatement(Statement.ACCOUNT_FIND_PAGE, accountKeyspace,
+                JsonObject.create()
+                        .put("after", after)
+                        .put("before", PageCursor.upperBound(ACCOUNT_KEY_PREFIX))
+                        .put("offset", skip)
+                        .put("limit", limit),
+                AccountRow.class);
+    }
+
     /**
      * Updates the account attributes for a given username.
      *
@@ -286,6 +789,9 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
 
     /**
      * Updates the account attributes for a specific user.
+     * Only attributes that already exist in the account are replaced. The update is guarded by the CAS of the
+     * preceding read and is retried with backoff if the account was modified concurrently. The pointer documents
+     * of the replaced attributes are then changed from the values read to the values written.
      *
      * @param username              The username of the user.
      * @param dataToUpdate          The map containing the attributes to update.
@@ -294,23 +800,98 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
      */
     private AccountAttributes update(String username, Map<String, Object> dataToUpdate,
                                      AttributesEnumeration attributesEnumeration) {
-        var entityToUpdate =
-                executeQueryForSingleResult(
-                        String.format(FIND_ALL_QUERY, ACCOUNT_COLLECTION_NAME, configuration.getBucket(),
-                                configuration.getScope(), ACCOUNT_COLLECTION_NAME, username));
+        var key = ACCOUNT_KEY_PREFIX + username;
+        var projection = projections.get(attributesEnumeration);
+        var update = Mono.fromCallable(() -> updateAttributes(key, dataToUpdate, projection))
+                .retryWhen(Retry.onlyIf(ctx -> ctx.exception() instanceof CasMismatchException)
+                        .exponentialBackoff(Duration.ofMillis(10), Duration.ofMillis(500))
+                        .retryMax(MAX_CAS_RETRIES)
+                        .toReactorRetry())
+                .block();
+        syncPointers(key, update.previous(), update.applied());
+        return AccountAttributes.fromMap(update.returned());
+    }
+
+    /**
+     * Replaces the existing attributes of an account with sub-document operations.
+     * A single lookup checks which of the attributes to update exist and reads the attributes to return,
+     * and a single mutation then writes only the changed paths.
+     *
+     * @param key          The key of the account document.
+     * @param dataToUpdate The map containing the attributes to update.
+     * @param projection   The projection of the attributes to return.
+     * @return The update, with the returned attributes of the updated account.
+     */
+    private AttributeUpdate updateAttributes(String key, Map<String, Object> dataToUpdate,
+                                                 Projection projection) {
+        var updateNames = new ArrayList<>(dataToUpdate.keySet());
+        if (!projection.fitsLookupIn()
+            || updateNames.size() + projection.lookupSpecs().size() > Projection.MAX_LOOKUP_IN_SPECS) {
+            return replaceAttributes(key, dataToUpdate, projection);
+        }
+
+        List<LookupInSpec> lookupSpecs = new ArrayList<>();
+        // The values of attributes with pointers are read, to know which pointers the update drops
+        updateNames.forEach(name -> lookupSpecs.add(isPointerAttribute(name)
+                ? LookupInSpec.get(toSubDocumentPath(name))
+                : LookupInSpec.exists(toSubDocumentPath(name))));
+        lookupSpecs.addAll(projection.lookupSpecs());
+        var lookupResult = collection.lookupIn(key, lookupSpecs);
+
+        Map<String, Object> changes = new HashMap<>();
+        Map<String, Object> previous = new HashMap<>();
+        for (int i = 0; i < updateNames.size(); i++) {
+            var name = updateNames.get(i);
+            if (lookupResult.exists(i)) {
+                changes.put(name, dataToUpdate.get(name));
+                if (isPointerAttribute(name)) {
+                    previous.put(name, lookupResult.contentAs(i, Object.class));
+                }
+            }
+        }
+        if (!changes.isEmpty()) {
+            var mutateSpecs = changes.entrySet().stream()
+                    .map(entry -> MutateInSpec.replace(toSubDocumentPath(entry.getKey()), entry.getValue()))
+                    .toList();
+            trackMutation(collection.mutateIn(key, mutateSpecs,
+                    MutateInOptions.mutateInOptions().cas(lookupResult.cas())));
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        var returnNames = projection.attributes();
+        for (int i = 0; i < returnNames.size(); i++) {
+            var name = returnNames.get(i);
+            if (changes.containsKey(name)) {
+                result.put(name, changes.get(name));
+            } else if (lookupResult.exists(updateNames.size() + i)) {
+                result.put(name, lookupResult.contentAs(updateNames.size() + i, Object.class));
+            }
+        }
+        return new AttributeUpdate(result, previous, changes);
+    }
+
+    /**
+     * Replaces the existing attributes of an account by rewriting the whole document.
+     * Used when the attributes involved do not fit in a single sub-document request.
+     */
+    private AttributeUpdate replaceAttributes(String key, Map<String, Object> dataToUpdate,
+                                              Projection projection) {
+        var getResult = collection.get(key);
+        var entityToUpdate = getResult.contentAs(MAP_TYPE);
+        Map<String, Object> changes = new HashMap<>();
+        Map<String, Object> previous = new HashMap<>();
         entityToUpdate.entrySet()
                 .forEach(entry -> {
                     if (dataToUpdate.containsKey(entry.getKey())) {
+                        if (isPointerAttribute(entry.getKey())) {
+                            previous.put(entry.getKey(), entry.getValue());
+                        }
                         entry.setValue(dataToUpdate.get(entry.getKey()));
+                        changes.put(entry.getKey(), entry.getValue());
                     }
                 });
-        this.collection.replace("node::user::personal_info::" + username, entityToUpdate);
-        var attributesToReturn = attributesEnumeration.getAttributes();
-        var updatedEntity = executeQueryForSingleResult(
-                String.format(FIND_ALL_QUERY, ACCOUNT_COLLECTION_NAME, configuration.getBucket(),
-                        configuration.getScope(), ACCOUNT_COLLECTION_NAME, username));
-        updatedEntity.keySet().retainAll(attributesToReturn);
-        return AccountAttributes.fromMap(updatedEntity);
+        trackMutation(collection.replace(key, entityToUpdate, ReplaceOptions.replaceOptions().cas(getResult.cas())));
+        return new AttributeUpdate(projection.apply(entityToUpdate), previous, changes);
     }
 
     /**
@@ -330,4 +911,90 @@ public class CouchbaseExecutor extends ManagedObject<CouchbaseDataAccessProvider
         return scope;
     }
 
+    public StatementRegistry getStatementRegistry() {
+        return statements;
+    }
+
+    public ReactiveCouchbaseExecutor getReactive() {
+        return reactive;
+    }
+
+    public LookupDocuments getLookups() {
+        return lookups;
+    }
+
+    public TokenCache getTokenCache() {
+        return tokenCache;
+    }
+
+    public SessionCache getSessionCache() {
+        return sessionCache;
+    }
+
+    public DelegationCounters getDelegationCounters() {
+        return delegationCounters;
+    }
+
+    public MissingLookupCache getMissingLookups() {
+        return missingLookups;
+    }
+
+    public Retention getRetention() {
+        return retention;
+    }
+
+    public DeadRecordSweeper getDeadRecordSweeper() {
+        return deadRecordSweeper;
+    }
+
+    List<DeadRecordSweeper.Target> sweepTargets() {
+        return List.of(
+                new DeadRecordSweeper.Target(Keyspace.of(scope.collection(DELEGATION_COLLECTION_NAME)), "status",
+                        "expires", retention.delegations(), "owner", delegationCounters::removed),
+                new DeadRecordSweeper.Target(Keyspace.of(scope.collection(TOKEN_COLLECTION_NAME)), "status",
+                        "expires", retention.tokens()));
+    }
+
+    /**
+     * Counts the documents in each collection holding expiring records, to keep track of how much is retained.
+     * The counts are read from the primary indexes, without scanning the documents.
+     *
+     * @return the number of documents per collection name
+     */
+    public Map<String, Long> getItemCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (String collectionName : List.of(CouchbaseSessionDataAccessProvider.SESSION_COLLECTION_NAME,
+                DELEGATION_COLLECTION_NAME, TOKEN_COLLECTION_NAME, NONCE_COLLECTION_NAME)) {
+            var keyspace = Keyspace.of(scope.collection(collectionName));
+            counts.put(collectionName, reactive.query(Statement.COUNT_ITEMS, keyspace, JsonObject.create(), Long.class)
+                    .next()
+                    .defaultIfEmpty(0L)
+                    .block());
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the queue session expiration updates are written behind through, or null if they are written
+     * directly.
+     */
+    @Nullable
+    public SessionTouchQueue getSessionTouchQueue() {
+        return sessionTouchQueue;
+    }
+
+    private record AccountRow(String id, AccountAttributes account) {
+    }
+
+    /**
+     * The outcome of an account update.
+     *
+     * @param returned the attributes to return
+     * @param previous the values before the update of the replaced attributes with pointer documents
+     * @param applied  the attributes the update replaced
+     */
+    private record AttributeUpdate(Map<String, Object> returned, Map<String, Object> previous,
+                                   Map<String, Object> applied) {
+    }
+
 }
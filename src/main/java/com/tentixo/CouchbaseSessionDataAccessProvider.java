@@ -14,57 +14,118 @@
 
 package com.tentixo;
 
-import com.couchbase.client.core.error.DocumentNotFoundException;
-import com.couchbase.client.java.Collection;
-import com.couchbase.client.java.kv.Expiry;
+import com.couchbase.client.java.kv.InsertOptions;
+import com.couchbase.client.java.kv.MutateInOptions;
+import com.couchbase.client.java.kv.MutateInSpec;
+import com.couchbase.client.java.kv.ReplaceOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
 import se.curity.identityserver.sdk.Nullable;
 import se.curity.identityserver.sdk.data.Session;
 import se.curity.identityserver.sdk.datasource.SessionDataAccessProvider;
 
-import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 
 public final class CouchbaseSessionDataAccessProvider implements SessionDataAccessProvider {
     private static final Logger _logger = LoggerFactory.getLogger(CouchbaseSessionDataAccessProvider.class);
     public static final String SESSION_COLLECTION_NAME = "curity-sessions";
     private final CouchbaseExecutor _couchbaseExecutor;
-    private final Collection collection;
+    private final ReactiveCouchbaseExecutor _reactiveExecutor;
+    private final SessionCache _sessionCache;
+    private final Retention _retention;
 
     public CouchbaseSessionDataAccessProvider(CouchbaseExecutor couchbaseExecutor) {
         _couchbaseExecutor = couchbaseExecutor;
-        this.collection = couchbaseExecutor.getScope().collection(SESSION_COLLECTION_NAME);
+        _reactiveExecutor = couchbaseExecutor.getReactive();
+        _sessionCache = couchbaseExecutor.getSessionCache();
+        _retention = couchbaseExecutor.getRetention();
     }
+
+    /**
+     * Expired sessions are retained for a while after they expire, but are not returned. An expiry still queued to
+     * be written takes the place of the stored one.
+     */
     @Override
     public @Nullable Session getSessionById(String id) {
-        try {
-            return collection.get(id).contentAs(Session.class);
-        } catch (DocumentNotFoundException de) {
-            _logger.debug("Document not found: " + id);
-            return null;
-        }
+        return _sessionCache.get(id, key -> _reactiveExecutor.get(SESSION_COLLECTION_NAME, key, Session.class))
+                .map(this::withQueuedExpiration)
+                .filter(session -> session.getExpiresAt().isAfter(Instant.now()))
+                .block();
     }
 
     @Override
     public void insertSession(Session session) {
-        collection.insert(session.getId(), session);
+        cancelQueuedTouch(session.getId());
+        _reactiveExecutor.insert(SESSION_COLLECTION_NAME, session.getId(), session,
+                InsertOptions.insertOptions().expiry(_retention.sessionExpiry(session.getExpiresAt()))).block();
+        _sessionCache.put(session);
     }
 
     @Override
     public void updateSession(Session session) {
-        collection.replace(session.getId(), session);
+        cancelQueuedTouch(session.getId());
+        try {
+            _reactiveExecutor.replace(SESSION_COLLECTION_NAME, session.getId(), session,
+                    ReplaceOptions.replaceOptions().expiry(_retention.sessionExpiry(session.getExpiresAt()))).block();
+        } catch (RuntimeException e) {
+            _sessionCache.invalidate(session.getId());
+            throw e;
+        }
+        _sessionCache.put(session);
     }
 
     @Override
     public void updateSessionExpiration(String id, Instant expiresAt) {
-        Instant now = Instant.now();
-        Duration duration = Duration.between(now, expiresAt);
-        collection.touch(id, duration);
+        var touchQueue = _couchbaseExecutor.getSessionTouchQueue();
+        if (touchQueue != null) {
+            touchQueue.enqueue(id, expiresAt);
+            _sessionCache.updateExpiration(id, expiresAt);
+            return;
+        }
+        try {
+            slideExpiration(_reactiveExecutor, _retention, id, expiresAt).block();
+        } catch (RuntimeException e) {
+            _sessionCache.invalidate(id);
+            throw e;
+        }
+        _sessionCache.updateExpiration(id, expiresAt);
+    }
+
+    /**
+     * Writes the new expiry of a session into the session, and sets the expiry of its document to match, in a
+     * single mutation.
+     */
+    static Mono<?> slideExpiration(ReactiveCouchbaseExecutor reactiveExecutor, Retention retention, String id,
+                                   Instant expiresAt) {
+        return reactiveExecutor.mutateIn(SESSION_COLLECTION_NAME, id,
+                List.of(MutateInSpec.replace("expiresAt", expiresAt)),
+                MutateInOptions.mutateInOptions().expiry(retention.sessionExpiry(expiresAt)));
     }
 
     @Override
     public void deleteSessionState(String id) {
-        collection.remove(id);
+        cancelQueuedTouch(id);
+        _reactiveExecutor.remove(SESSION_COLLECTION_NAME, id)
+                .doFinally(signal -> _sessionCache.invalidate(id))
+                .block();
+    }
+
+    /**
+     * Drops an expiry queued for the session, so that a later flush does not overwrite the expiry of a write with
+     * an older one.
+     */
+    private Session withQueuedExpiration(Session session) {
+        var touchQueue = _couchbaseExecutor.getSessionTouchQueue();
+        var queued = touchQueue == null ? null : touchQueue.queued(session.getId());
+        return queued == null ? session : new Session(session.getId(), queued, session.getData());
+    }
+
+    private void cancelQueuedTouch(String id) {
+        var touchQueue = _couchbaseExecutor.getSessionTouchQueue();
+        if (touchQueue != null) {
+            touchQueue.cancel(id);
+        }
     }
 }
@@ -14,6 +14,7 @@
 
 package com.tentixo;
 
+import com.couchbase.client.core.error.DocumentExistsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.curity.identityserver.sdk.Nullable;
@@ -24,6 +25,7 @@ import se.curity.identityserver.sdk.data.query.ResourceQuery;
 import se.curity.identityserver.sdk.data.query.ResourceQueryResult;
 import se.curity.identityserver.sdk.data.update.AttributeUpdate;
 import se.curity.identityserver.sdk.datasource.UserAccountDataAccessProvider;
+import se.curity.identityserver.sdk.errors.ConflictException;
 
 import java.util.Collection;
 import java.util.Map;
@@ -66,9 +68,6 @@ public class CouchbaseUserAccountDataAccessProvider implements UserAccountDataAc
     public @Nullable ResourceAttributes<?> getByEmail(String email,
                                                       ResourceQuery.AttributesEnumeration attributesEnumeration) {
         _logger.debug("Received request to get account by email: {}", email);
-        // TODO: Rewrite to work with SCIM parameters, since they are multivalued
-        // A scim email looks like this:
-        // emails: [{value: john@doe.com, primary: true}, {value: johndoe@gmail.com}]
         return _couchbaseExecutor.getByParameter(Parameters.EMAIL, email, attributesEnumeration);
     }
 
@@ -84,7 +83,6 @@ public class CouchbaseUserAccountDataAccessProvider implements UserAccountDataAc
     public @Nullable ResourceAttributes<?> getByPhone(String phone,
                                                       ResourceQuery.AttributesEnumeration attributesEnumeration) {
         _logger.debug("Received request to get account by phone: {}", phone);
-        // TODO: Rewrite to work with SCIM parameters, since they are multivalued
         return _couchbaseExecutor.getByParameter(Parameters.PHONE, phone, attributesEnumeration);
     }
 
@@ -93,11 +91,18 @@ public class CouchbaseUserAccountDataAccessProvider implements UserAccountDataAc
      *
      * @param accountAttributes The account attributes to be used for creating the account.
      * @return The created account attributes.
+     * @throws ConflictException if account creation is insert-only and an account with the username exists
      */
     @Override
     public AccountAttributes create(AccountAttributes accountAttributes) {
         _logger.debug("Received request to create a new account");
-        return _couchbaseExecutor.create(accountAttributes);
+        try {
+            return _couchbaseExecutor.create(accountAttributes);
+        } catch (DocumentExistsException e) {
+            _logger.debug("Account already exists: {}", accountAttributes.getUserName());
+            throw new ConflictException("Account with username " + accountAttributes.getUserName()
+                                        + " already exists");
+        }
     }
 
     /**
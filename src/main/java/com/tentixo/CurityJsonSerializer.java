@@ -19,6 +19,7 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 import com.fasterxml.jackson.module.paranamer.ParanamerModule;
 import com.tentixo.token.DelegationAdapter;
+import se.curity.identityserver.sdk.attribute.AccountAttributes;
 import se.curity.identityserver.sdk.attribute.Attributes;
 import se.curity.identityserver.sdk.attribute.AuthenticationAttributes;
 import se.curity.identityserver.sdk.data.StringOrArray;
@@ -108,6 +109,14 @@ public class CurityJsonSerializer implements JsonSerializer {
                         return AuthenticationAttributes.fromAttributes( Attributes.fromMap(m));
                     }
                 })
+                .addDeserializer(AccountAttributes.class, new JsonDeserializer<AccountAttributes>() {
+
+                    @Override
+                    public AccountAttributes deserialize(JsonParser p, DeserializationContext ctxt) throws IOException, JacksonException {
+                        Map<String, Object> m = p.readValueAs(Map.class);
+                        return AccountAttributes.fromMap(m);
+                    }
+                })
                 .addAbstractTypeMapping(Token.class, TokenAdapter.class)
                 .addAbstractTypeMapping(Delegation.class, DelegationAdapter.class)
                 .addAbstractTypeMapping(StringOrArray.class, StringOrArrayAdapter.class);
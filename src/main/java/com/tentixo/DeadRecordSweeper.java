@@ -0,0 +1,273 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.tentixo;
+
+import com.couchbase.client.core.error.CasMismatchException;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.LookupInResult;
+import com.couchbase.client.java.kv.LookupInSpec;
+import com.couchbase.client.java.kv.RemoveOptions;
+import com.tentixo.query.Keyspace;
+import com.tentixo.query.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.curity.identityserver.sdk.Nullable;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deletes delegations and tokens that are past their retain duration but whose documents do not expire, such as
+ * those stored before records were given a document expiry, or by a node that did not set one.
+ * <p>
+ * Records written with a document expiry are removed by the data service at the same time, so the sweeper finds
+ * nothing to do for them. Nonces are always saved with a document expiry, so they are not swept. Dead records are
+ * found in bounded batches through an index on their status and expiry, which covers the query for their ids. Each one is checked again and removed under the CAS of that check, so that a stale index entry
+ * never removes a live record. Deletions are paced to a maximum rate, and only the node holding the sweeper lease
+ * sweeps. The lease is a document that expires unless its holder renews it, so another node takes over when the
+ * holder goes away.
+ */
+public final class DeadRecordSweeper implements AutoCloseable {
+
+    static final String LEASE_KEY = "lease::sweeper";
+    private static final Logger _logger = LoggerFactory.getLogger(DeadRecordSweeper.class);
+    private static final String VALUE_BYTES = "$document.value_bytes";
+
+    /**
+     * A kind of record that can be swept. Records of any status are dead once they expired longer ago than the
+     * retain duration, which is when their documents would have expired.
+     *
+     * @param keyspace     the collection holding the records
+     * @param statusField  the field holding the status of a record
+     * @param expiresField the field holding when a record expires, in epoch seconds
+     * @param retain       how long records are kept after they expire
+     * @param ownerField   the field holding the owner of a record, read for the removal listener, if any
+     * @param onRemoved    notified of every record the sweeper removes
+     */
+    public record Target(Keyspace keyspace, String statusField, String expiresField, Duration retain,
+                         @Nullable String ownerField, RemovalListener onRemoved) {
+
+        public Target(Keyspace keyspace, String statusField, String expiresField, Duration retain) {
+            this(keyspace, statusField, expiresField, retain, null, (owner, status) -> Mono.empty());
+        }
+
+        /**
+         * The latest expiry of records that are dead at the given time, in epoch seconds.
+         */
+        long expiredBefore(long now) {
+            return now - retain.toSeconds();
+        }
+
+        boolean isDead(@Nullable Long expires, long now) {
+            return expires != null && expires < expiredBefore(now);
+        }
+    }
+
+    /**
+     * Notified of a removed record, with its owner and status as they were when it was checked.
+     */
+    @FunctionalInterface
+    public interface RemovalListener {
+        Mono<Void> removed(@Nullable String owner, @Nullable String status);
+    }
+
+    private final ReactiveCouchbaseExecutor reactive;
+    private final List<Target> targets;
+    private final int batchSize;
+    private final long maxDeletionsPerSecond;
+    private final Duration interval;
+    private final Clock clock;
+    private final LongAdder purged = new LongAdder();
+    private final LongAdder bytesReclaimed = new LongAdder();
+    private final Lease lease;
+    @Nullable
+    private final ScheduledExecutorService scheduler;
+
+    DeadRecordSweeper(ReactiveCouchbaseExecutor reactive, List<Target> targets, boolean enabled, Duration interval,
+                      int batchSize, long maxDeletionsPerSecond) {
+        this(reactive, targets, enabled, interval, batchSize, maxDeletionsPerSecond, Clock.systemUTC());
+    }
+
+    DeadRecordSweeper(ReactiveCouchbaseExecutor reactive, List<Target> targets, boolean enabled, Duration interval,
+                      int batchSize, long maxDeletionsPerSecond, Clock clock) {
+        this.reactive = reactive;
+        this.targets = targets;
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.maxDeletionsPerSecond = maxDeletionsPerSecond;
+        this.clock = clock;
+        // The lease lasts three intervals, so that a sweep that is delayed does not lose it
+        this.lease = new Lease(reactive, LEASE_KEY, interval.multipliedBy(3));
+        if (!enabled) {
+            this.scheduler = null;
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "couchbase-dead-record-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sweepQuietly, interval.toSeconds(), interval.toSeconds(),
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sweeps every target if this node holds or acquires the lease. A sweep deletes at most as many records as the
+     * maximum rate allows within one interval, so that it finishes before the lease runs out.
+     *
+     * @return the number of records deleted
+     */
+    public long sweep() {
+        if (!lease.acquire()) {
+            _logger.trace("Sweeper lease is held by another node");
+            return 0;
+        }
+        var budget = Math.max(1, maxDeletionsPerSecond * interval.toSeconds());
+        long deleted = 0;
+        for (Target target : targets) {
+            deleted += sweep(target, budget - deleted);
+            if (deleted >= budget) {
+                break;
+            }
+        }
+        _logger.debug("Swept {} dead records", deleted);
+        return deleted;
+    }
+
+    /**
+     * Whether this node held the lease at its last sweep.
+     */
+    public boolean isLeader() {
+        return lease.isHeld();
+    }
+
+    public long getItemsPurged() {
+        return purged.sum();
+    }
+
+    /**
+     * The size of the values of the deleted documents, in bytes.
+     */
+    public long getBytesReclaimed() {
+        return bytesReclaimed.sum();
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        lease.release();
+    }
+
+    private long sweep(Target target, long budget) {
+        long deleted = 0;
+        while (deleted < budget) {
+            var limit = (int) Math.min(batchSize, budget - deleted);
+            var started = System.nanoTime();
+            var ids = deadRecordIds(target, limit);
+            if (ids.isEmpty()) {
+                break;
+            }
+            deleted += Flux.fromIterable(ids)
+                    .flatMap(id -> delete(target, id), reactive.getMaxConcurrency())
+                    .filter(Boolean::booleanValue)
+                    .count()
+                    .block();
+            pace(ids.size(), System.nanoTime() - started);
+            if (ids.size() < limit) {
+                break;
+            }
+        }
+        return deleted;
+    }
+
+    private List<String> deadRecordIds(Target target, int limit) {
+        var parameters = JsonObject.create()
+                .put("before", target.expiredBefore(clock.instant().getEpochSecond()))
+                .put("limit", limit);
+        return reactive.query(Statement.DEAD_RECORD_IDS, target.keyspace(), parameters, String.class,
+                        target.statusField(), target.expiresField())
+                .collectList()
+                .block();
+    }
+
+    /**
+     * Removes the record if it is still dead, under the CAS of the check.
+     */
+    private Mono<Boolean> delete(Target target, String id) {
+        var collection = target.keyspace().collection();
+        List<LookupInSpec> specs = new ArrayList<>(List.of(LookupInSpec.get(VALUE_BYTES).xattr(),
+                LookupInSpec.get(target.statusField()), LookupInSpec.get(target.expiresField())));
+        if (target.ownerField() != null) {
+            specs.add(LookupInSpec.get(target.ownerField()));
+        }
+        return reactive.lookupIn(collection, id, specs)
+                .filter(result -> target.isDead(longAt(result, 2), clock.instant().getEpochSecond()))
+                .flatMap(result -> reactive.remove(collection, id, RemoveOptions.removeOptions().cas(result.cas()))
+                        .doOnNext(removed -> {
+                            purged.increment();
+                            var bytes = longAt(result, 0);
+                            bytesReclaimed.add(bytes == null ? 0 : bytes);
+                        })
+                        .then(Mono.defer(() -> target.onRemoved().removed(
+                                target.ownerField() == null ? null : stringAt(result, 3), stringAt(result, 1))))
+                        .thenReturn(true))
+                // A record changed or removed since it was checked is left for a later sweep
+                .onErrorResume(CasMismatchException.class, e -> Mono.just(false))
+                .defaultIfEmpty(false);
+    }
+
+    /**
+     * Waits for as long as deleting the batch at the maximum rate would have taken beyond the elapsed time.
+     */
+    private void pace(int batch, long elapsedNanos) {
+        var wait = TimeUnit.SECONDS.toNanos(batch) / maxDeletionsPerSecond - elapsedNanos;
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            _logger.warn("Could not sweep dead records: {}", e.getMessage());
+        }
+    }
+
+    @Nullable
+    private static String stringAt(LookupInResult result, int index) {
+        return result.exists(index) ? result.contentAs(index, String.class) : null;
+    }
+
+    @Nullable
+    private static Long longAt(LookupInResult result, int index) {
+        return result.exists(index) ? result.contentAs(index, Long.class) : null;
+    }
+}
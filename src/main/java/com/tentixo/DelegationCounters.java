@@ -0,0 +1,204 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.couchbase.client.core.error.DocumentExistsException;
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.InsertOptions;
+import com.couchbase.client.java.kv.UpsertOptions;
+import com.tentixo.query.Keyspace;
+import com.tentixo.query.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.data.authorization.DelegationStatus;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counter documents holding the number of delegations by status and by owner, so that counting them is a
+ * key-value get instead of a {@code COUNT} query over the delegations.
+ * <p>
+ * Counters are created from the query count the first time they are read, and are then incremented and
+ * decremented as delegations are created and change status. Updates racing with the creation of a counter can
+ * make it drift, so counters are corrected against the query count: the counter of issued delegations by a
+ * periodic reconciliation, and the counters by owner, which are too many to reconcile, by expiring after the
+ * reconciliation interval and being counted again when next read. The counts a counter is set to are queried with
+ * {@code REQUEST_PLUS}, so that they include every delegation the counter was already updated for, and only the
+ * node holding the reconciliation lease reconciles.
+ * <p>
+ * Delegations deleted by the dead record sweeper are counted out as they are deleted. Delegations removed by their
+ * document expiry are never seen by the plugin, so the counters only catch up with those when they are corrected.
+ */
+public final class DelegationCounters implements AutoCloseable {
+
+    public static final String COUNTER_COLLECTION_NAME = "curity-counters";
+    private static final Logger _logger = LoggerFactory.getLogger(DelegationCounters.class);
+    private static final String STATUS = "status";
+    private static final String OWNER = "owner";
+    static final String LEASE_KEY = "lease::delegation-counters";
+
+    private final ReactiveCouchbaseExecutor reactive;
+    private final Keyspace delegations;
+    private final Duration reconciliationInterval;
+    private final Lease lease;
+    @Nullable
+    private final ScheduledExecutorService reconciler;
+
+    DelegationCounters(ReactiveCouchbaseExecutor reactive, Keyspace delegations, boolean enabled,
+                       Duration reconciliationInterval) {
+        this.reactive = reactive;
+        this.delegations = delegations;
+        this.reconciliationInterval = reconciliationInterval;
+        this.lease = new Lease(reactive, LEASE_KEY, reconciliationInterval.multipliedBy(3));
+        if (!enabled) {
+            this.reconciler = null;
+            return;
+        }
+        this.reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "couchbase-delegation-counters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcileQuietly, reconciliationInterval.toSeconds(),
+                reconciliationInterval.toSeconds(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Whether counters are maintained. When they are not, the update methods do nothing and counts are queried.
+     */
+    public boolean isEnabled() {
+        return reconciler != null;
+    }
+
+    public Mono<Long> countActive() {
+        return count(STATUS, DelegationStatus.issued.name(), null);
+    }
+
+    public Mono<Long> countByOwner(String owner) {
+        return count(OWNER, owner, reconciliationInterval);
+    }
+
+    /**
+     * Counts a delegation that was created.
+     */
+    public Mono<Void> created(String owner, DelegationStatus status) {
+        if (!isEnabled()) {
+            return Mono.empty();
+        }
+        var byOwner = add(OWNER, owner, 1);
+        return status == DelegationStatus.issued ? Mono.when(byOwner, add(STATUS, status.name(), 1)) : byOwner;
+    }
+
+    /**
+     * Moves a delegation between the status counters.
+     */
+    public Mono<Void> statusChanged(@Nullable String previousStatus, DelegationStatus status) {
+        var issued = DelegationStatus.issued.name();
+        if (!isEnabled() || Objects.equals(previousStatus, status.name())) {
+            return Mono.empty();
+        }
+        if (issued.equals(previousStatus)) {
+            return add(STATUS, issued, -1);
+        }
+        return status == DelegationStatus.issued ? add(STATUS, issued, 1) : Mono.empty();
+    }
+
+    /**
+     * Counts out a delegation that was deleted.
+     */
+    public Mono<Void> removed(@Nullable String owner, @Nullable String status) {
+        if (!isEnabled()) {
+            return Mono.empty();
+        }
+        var byOwner = owner == null ? Mono.<Void>empty() : add(OWNER, owner, -1);
+        var issued = DelegationStatus.issued.name();
+        return issued.equals(status) ? Mono.when(byOwner, add(STATUS, issued, -1)) : byOwner;
+    }
+
+    /**
+     * Replaces the counter of issued delegations with the query count.
+     */
+    public void reconcile() {
+        var issued = DelegationStatus.issued.name();
+        var actual = queryCount(Statement.DELEGATION_RECOUNT_BY_PARAMETER, STATUS, issued).block();
+        reactive.upsert(COUNTER_COLLECTION_NAME, key(STATUS, issued), actual, UpsertOptions.upsertOptions()).block();
+        _logger.debug("Reconciled count of issued delegations to {}", actual);
+    }
+
+    @Override
+    public void close() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+        }
+        lease.release();
+    }
+
+    private Mono<Long> count(String parameter, String value, @Nullable Duration expiry) {
+        if (!isEnabled()) {
+            return queryCount(Statement.DELEGATION_COUNT_BY_PARAMETER, parameter, value);
+        }
+        var key = key(parameter, value);
+        return reactive.get(COUNTER_COLLECTION_NAME, key, Long.class)
+                .switchIfEmpty(Mono.defer(() -> queryCount(Statement.DELEGATION_RECOUNT_BY_PARAMETER, parameter, value)
+                        .flatMap(count -> {
+                            var options = InsertOptions.insertOptions();
+                            if (expiry != null) {
+                                options.expiry(expiry);
+                            }
+                            return reactive.insert(COUNTER_COLLECTION_NAME, key, count, options)
+                                    .onErrorResume(DocumentExistsException.class, e -> Mono.empty())
+                                    .thenReturn(count);
+                        })));
+    }
+
+    private Mono<Long> queryCount(Statement statement, String parameter, String value) {
+        return reactive.query(statement, delegations,
+                        JsonObject.create().put("value", value), Long.class, parameter)
+                .next()
+                .defaultIfEmpty(0L);
+    }
+
+    private Mono<Void> add(String parameter, String value, long delta) {
+        var key = key(parameter, value);
+        var update = delta > 0
+                ? reactive.increment(COUNTER_COLLECTION_NAME, key, delta)
+                : reactive.decrement(COUNTER_COLLECTION_NAME, key, -delta);
+        // A counter that does not exist yet is counted by the query when it is first read
+        return update.onErrorResume(DocumentNotFoundException.class, e -> Mono.empty()).then();
+    }
+
+    private void reconcileQuietly() {
+        try {
+            if (!lease.acquire()) {
+                _logger.trace("Delegation counter reconciliation lease is held by another node");
+                return;
+            }
+            reconcile();
+        } catch (RuntimeException e) {
+            _logger.warn("Could not reconcile delegation counters: {}", e.getMessage());
+        }
+    }
+
+    private static String key(String parameter, String value) {
+        return LookupDocuments.boundedKey("count::delegations::" + parameter + "::", value);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.couchbase.client.core.error.CasMismatchException;
+import com.couchbase.client.core.error.DocumentExistsException;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.InsertOptions;
+import com.couchbase.client.java.kv.LookupInSpec;
+import com.couchbase.client.java.kv.RemoveOptions;
+import com.couchbase.client.java.kv.ReplaceOptions;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static com.tentixo.DelegationCounters.COUNTER_COLLECTION_NAME;
+
+/**
+ * A lease on a background job, so that only one node runs it at a time.
+ * <p>
+ * The lease is a document naming its holder, which expires unless the holder renews it. Another node therefore
+ * takes over when the holder goes away.
+ */
+final class Lease {
+
+    private static final String HOLDER = "holder";
+
+    private final ReactiveCouchbaseExecutor reactive;
+    private final String key;
+    private final Duration duration;
+    private final String nodeId = UUID.randomUUID().toString();
+    private volatile boolean held;
+    // The CAS of the lease document as this node last wrote it, so that it only removes its own lease
+    private volatile long cas;
+
+    /**
+     * @param key      the key of the lease document
+     * @param duration how long the lease lasts unless it is renewed
+     */
+    Lease(ReactiveCouchbaseExecutor reactive, String key, Duration duration) {
+        this.reactive = reactive;
+        this.key = key;
+        this.duration = duration;
+    }
+
+    /**
+     * Acquires the lease, or renews it if this node holds it.
+     *
+     * @return whether this node holds the lease
+     */
+    boolean acquire() {
+        var content = JsonObject.create().put(HOLDER, nodeId);
+        var written = reactive.insert(COUNTER_COLLECTION_NAME, key, content,
+                        InsertOptions.insertOptions().expiry(duration))
+                .onErrorResume(DocumentExistsException.class, e -> reactive.lookupIn(COUNTER_COLLECTION_NAME, key,
+                                List.of(LookupInSpec.get(HOLDER)))
+                        .filter(result -> result.exists(0) && nodeId.equals(result.contentAs(0, String.class)))
+                        .flatMap(result -> reactive.replace(COUNTER_COLLECTION_NAME, key, content,
+                                ReplaceOptions.replaceOptions().cas(result.cas()).expiry(duration)))
+                        .onErrorResume(CasMismatchException.class, ce -> Mono.empty()))
+                .block();
+        if (written != null) {
+            cas = written.cas();
+        }
+        held = written != null;
+        return held;
+    }
+
+    /**
+     * Whether this node held the lease when it last tried to acquire it.
+     */
+    boolean isHeld() {
+        return held;
+    }
+
+    /**
+     * Gives the lease up if this node holds it, so that another node can take over without waiting for it to
+     * expire. The lease is removed under the CAS this node last wrote it with, so a lease that expired and was
+     * taken over by another node meanwhile is left to that node.
+     */
+    void release() {
+        if (held) {
+            reactive.remove(COUNTER_COLLECTION_NAME, key, RemoveOptions.removeOptions().cas(cas))
+                    .onErrorResume(e -> Mono.empty())
+                    .block();
+            held = false;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.couchbase.client.core.error.CasMismatchException;
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.LookupInSpec;
+import com.couchbase.client.java.kv.RemoveOptions;
+import com.couchbase.client.java.kv.UpsertOptions;
+import reactor.core.publisher.Mono;
+import se.curity.identityserver.sdk.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Pointer documents from an attribute value to the key of the document holding it, such as
+ * {@code idx::email::<email>} or {@code idx::phone::<phone number>} to an account, so that the document can be found with key-value gets instead of a
+ * query.
+ * <p>
+ * Pointers are hints: they are written after their document and not removed atomically with it, so readers must
+ * check that the document they point to still holds the value, and fall back to a query when it does not or when
+ * there is no pointer.
+ */
+public final class LookupDocuments {
+
+    public static final String LOOKUP_COLLECTION_NAME = "curity-lookups";
+    // Couchbase keys are at most 250 bytes, longer values are replaced by their digest
+    private static final int MAX_PLAIN_VALUE_LENGTH = 200;
+
+    public enum Kind {
+        EMAIL("email"), PHONE("phone"), CODE("code");
+
+        private final String name;
+
+        Kind(String name) {
+            this.name = name;
+        }
+    }
+
+    private final ReactiveCouchbaseExecutor reactive;
+    private final boolean enabled;
+
+    LookupDocuments(ReactiveCouchbaseExecutor reactive, boolean enabled) {
+        this.reactive = reactive;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Whether pointer documents are maintained. When they are not, the other methods do nothing.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the key of the document the value points to, or empty if there is no pointer.
+     */
+    public Mono<String> target(Kind kind, String value) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        return reactive.get(LOOKUP_COLLECTION_NAME, key(kind, value), JsonObject.class)
+                .mapNotNull(pointer -> pointer.getString("key"));
+    }
+
+    /**
+     * Points the value to the given document key.
+     *
+     * @param expiry when the pointer expires, or null if it does not
+     */
+    public Mono<Void> put(Kind kind, String value, String targetKey, @Nullable Instant expiry) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        var options = UpsertOptions.upsertOptions();
+        if (expiry != null) {
+            options.expiry(expiry);
+        }
+        return reactive.upsert(LOOKUP_COLLECTION_NAME, key(kind, value), JsonObject.create().put("key", targetKey),
+                options).then();
+    }
+
+    /**
+     * Removes the pointer of the value if it still points to the given document key, so that a pointer another
+     * document has taken over since is kept.
+     */
+    public Mono<Void> remove(Kind kind, String value, String targetKey) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        var key = key(kind, value);
+        return reactive.lookupIn(LOOKUP_COLLECTION_NAME, key, List.of(LookupInSpec.get("key")))
+                .filter(pointer -> pointer.exists(0) && targetKey.equals(pointer.contentAs(0, String.class)))
+                .flatMap(pointer -> reactive.remove(LOOKUP_COLLECTION_NAME, key,
+                        RemoveOptions.removeOptions().cas(pointer.cas())))
+                // A pointer that was removed or rewritten in the meantime is no longer this document's to remove
+                .onErrorResume(DocumentNotFoundException.class, e -> Mono.empty())
+                .onErrorResume(CasMismatchException.class, e -> Mono.empty())
+                .then();
+    }
+
+    static String key(Kind kind, String value) {
+        return boundedKey("idx::" + kind.name + "::", value);
+    }
+
+    /**
+     * Returns the prefix followed by the value, or by the digest of the value if it would make the key too long.
+     */
+    static String boundedKey(String prefix, String value) {
+        if (value.getBytes(UTF_8).length <= MAX_PLAIN_VALUE_LENGTH) {
+            return prefix + value;
+        }
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(UTF_8));
+            return prefix + "sha256::" + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import reactor.core.publisher.Mono;
+import se.curity.identityserver.sdk.Nullable;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Remembers for a short while which documents were recently looked up and not found, local to this node.
+ * <p>
+ * Repeated lookups of such documents complete empty without a round trip to the cluster, and without the SDK
+ * raising a {@code DocumentNotFoundException} for them. The first miss still raises one, since telling a miss
+ * apart without it would take an existence check ahead of every lookup, which costs found documents a second
+ * round trip. Documents created through this node are forgotten as missing right away, while documents created
+ * on other nodes are found once the entry expires, so the time to live bounds how long a new document can be
+ * reported as missing.
+ */
+public final class MissingLookupCache {
+
+    private static final int MAXIMUM_SIZE = 100_000;
+
+    @Nullable
+    private final Cache<Key, Boolean> cache;
+    private final LongAdder avoidedLookups = new LongAdder();
+
+    /**
+     * @param enabled    whether missing documents are remembered; when they are not, every lookup is made
+     * @param timeToLive how long a document is remembered as missing
+     */
+    public MissingLookupCache(boolean enabled, Duration timeToLive) {
+        this(enabled, timeToLive, Ticker.systemTicker());
+    }
+
+    MissingLookupCache(boolean enabled, Duration timeToLive, Ticker ticker) {
+        this.cache = enabled
+                ? Caffeine.newBuilder().maximumSize(MAXIMUM_SIZE).expireAfterWrite(timeToLive).ticker(ticker).build()
+                : null;
+    }
+
+    /**
+     * Looks up a document, unless it was recently found to be missing.
+     *
+     * @param collectionName the collection of the document
+     * @param id             the id of the document
+     * @param lookup         looks up the document, completing empty if it does not exist
+     * @return the document, or empty if it does not exist
+     */
+    public <T> Mono<T> get(String collectionName, String id, Function<String, Mono<T>> lookup) {
+        if (cache == null) {
+            return lookup.apply(id);
+        }
+        var key = new Key(collectionName, id);
+        if (cache.getIfPresent(key) != null) {
+            avoidedLookups.increment();
+            return Mono.empty();
+        }
+        return lookup.apply(id).switchIfEmpty(Mono.fromRunnable(() -> cache.put(key, Boolean.TRUE)));
+    }
+
+    /**
+     * Forgets that a document was missing, because it was just created.
+     */
+    public void invalidate(String collectionName, String id) {
+        if (cache != null) {
+            cache.invalidate(new Key(collectionName, id));
+        }
+    }
+
+    public long getAvoidedLookups() {
+        return avoidedLookups.sum();
+    }
+
+    private record Key(String collectionName, String id) {
+    }
+}
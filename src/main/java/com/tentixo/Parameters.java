@@ -19,15 +19,18 @@ package com.tentixo;
  */
 public enum Parameters
 {
-    USERNAME("userName", "username"), EMAIL("emails", "email"), PHONE("phoneNumbers", "phone");
+    USERNAME("userName", "username", false), EMAIL("emails", "email", true), PHONE("phoneNumbers", "phone", true);
 
     private final String scimName;
     private final String name;
+    // SCIM stores these as arrays of {value, primary} objects
+    private final boolean scimMultiValued;
 
-    Parameters(String scimName, String name)
+    Parameters(String scimName, String name, boolean scimMultiValued)
     {
         this.scimName = scimName;
         this.name = name;
+        this.scimMultiValued = scimMultiValued;
     }
 
     public String getScimName() {
@@ -37,4 +40,13 @@ public enum Parameters
     public String getName() {
         return name;
     }
+
+    public boolean isScimMultiValued() {
+        return scimMultiValued;
+    }
+
+    // Only emails are looked up ignoring case, and only when configured to
+    public boolean supportsCaseInsensitiveLookup() {
+        return this == EMAIL;
+    }
 }
@@ -0,0 +1,241 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.couchbase.client.core.error.CouchbaseException;
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.core.error.PreparedStatementFailureException;
+import com.couchbase.client.java.ReactiveCluster;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.ReactiveScope;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.CounterResult;
+import com.couchbase.client.java.kv.DecrementOptions;
+import com.couchbase.client.java.kv.IncrementOptions;
+import com.couchbase.client.java.kv.InsertOptions;
+import com.couchbase.client.java.kv.LookupInResult;
+import com.couchbase.client.java.kv.LookupInSpec;
+import com.couchbase.client.java.kv.MutateInOptions;
+import com.couchbase.client.java.kv.MutateInSpec;
+import com.couchbase.client.java.kv.MutationResult;
+import com.couchbase.client.java.kv.RemoveOptions;
+import com.couchbase.client.java.kv.ReplaceOptions;
+import com.couchbase.client.java.kv.UpsertOptions;
+import com.couchbase.client.java.query.QueryOptions;
+import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration;
+import com.tentixo.query.Keyspace;
+import com.tentixo.query.MutationTracker;
+import com.tentixo.query.Statement;
+import com.tentixo.query.StatementRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+
+/**
+ * Non-blocking counterpart of {@link CouchbaseExecutor}, sharing its cluster connection, prepared statements and
+ * tracked mutations.
+ * <p>
+ * Every operation is bounded by the configured operation timeout, and operations over many documents run at most
+ * the configured number of requests at a time. The blocking providers call {@code block()} on these operations,
+ * so batch and fan-out paths compose them instead of parking a thread per request.
+ */
+public final class ReactiveCouchbaseExecutor {
+
+    private static final Logger _logger = LoggerFactory.getLogger(ReactiveCouchbaseExecutor.class);
+
+    private final ReactiveCluster cluster;
+    private final ReactiveScope scope;
+    private final StatementRegistry statements;
+    private final MutationTracker mutations;
+    private final BiFunction<Statement.Kind, String, QueryOptions> queryOptions;
+    private final Duration operationTimeout;
+    private final int maxConcurrency;
+
+    ReactiveCouchbaseExecutor(ReactiveCluster cluster, ReactiveScope scope,
+                              CouchbaseDataAccessProviderConfiguration configuration, StatementRegistry statements,
+                              MutationTracker mutations,
+                              BiFunction<Statement.Kind, String, QueryOptions> queryOptions) {
+        this.cluster = cluster;
+        this.scope = scope;
+        this.statements = statements;
+        this.mutations = mutations;
+        this.queryOptions = queryOptions;
+        this.operationTimeout = Duration.ofMillis(configuration.getOperationTimeout());
+        this.maxConcurrency = configuration.getMaxConcurrency().intValue();
+    }
+
+    /**
+     * Gets a document.
+     *
+     * @param collectionName the collection of the document
+     * @param id             the id of the document
+     * @param type           the type to decode the document into
+     * @return the document, or empty if it does not exist
+     */
+    public <T> Mono<T> get(String collectionName, String id, Class<T> type) {
+        return bounded(collection(collectionName).get(id)
+                .map(result -> result.contentAs(type))
+                .onErrorResume(DocumentNotFoundException.class, e -> {
+                    _logger.debug("Document not found: {}", id);
+                    return Mono.empty();
+                }));
+    }
+
+    /**
+     * Gets documents concurrently, in the order of their ids. Documents that do not exist are left out.
+     *
+     * @param collectionName the collection of the documents
+     * @param ids            the ids of the documents
+     * @param type           the type to decode the documents into
+     * @return the documents
+     */
+    public <T> Flux<T> getAll(String collectionName, Collection<String> ids, Class<T> type) {
+        return Flux.fromIterable(ids)
+                .flatMapSequential(id -> get(collectionName, id, type), maxConcurrency);
+    }
+
+    /**
+     * Reads parts of a document with a single sub-document lookup.
+     *
+     * @param collectionName the collection of the document
+     * @param id             the id of the document
+     * @param specs          the paths to read
+     * @return the lookup result, or empty if the document does not exist
+     */
+    public Mono<LookupInResult> lookupIn(String collectionName, String id, List<LookupInSpec> specs) {
+        return bounded(collection(collectionName).lookupIn(id, specs)
+                .onErrorResume(DocumentNotFoundException.class, e -> {
+                    _logger.debug("Document not found: {}", id);
+                    return Mono.empty();
+                }));
+    }
+
+    public Mono<MutationResult> insert(String collectionName, String id, Object content) {
+        return insert(collectionName, id, content, InsertOptions.insertOptions());
+    }
+
+    public Mono<MutationResult> insert(String collectionName, String id, Object content, InsertOptions options) {
+        return tracked(collectionName, collection(collectionName).insert(id, content, options));
+    }
+
+    public Mono<MutationResult> upsert(String collectionName, String id, Object content, UpsertOptions options) {
+        return tracked(collectionName, collection(collectionName).upsert(id, content, options));
+    }
+
+    public Mono<MutationResult> replace(String collectionName, String id, Object content) {
+        return replace(collectionName, id, content, ReplaceOptions.replaceOptions());
+    }
+
+    public Mono<MutationResult> replace(String collectionName, String id, Object content, ReplaceOptions options) {
+        return tracked(collectionName, collection(collectionName).replace(id, content, options));
+    }
+
+    public Mono<MutationResult> mutateIn(String collectionName, String id, List<MutateInSpec> specs) {
+        return mutateIn(collectionName, id, specs, MutateInOptions.mutateInOptions());
+    }
+
+    public Mono<MutationResult> mutateIn(String collectionName, String id, List<MutateInSpec> specs,
+                                         MutateInOptions options) {
+        return tracked(collectionName, collection(collectionName).mutateIn(id, specs, options));
+    }
+
+    public Mono<MutationResult> touch(String collectionName, String id, Duration expiry) {
+        return tracked(collectionName, collection(collectionName).touch(id, expiry));
+    }
+
+    /**
+     * Adds to a counter document. Counters are not created here, so this fails with
+     * {@code DocumentNotFoundException} if the counter does not exist.
+     */
+    public Mono<CounterResult> increment(String collectionName, String id, long delta) {
+        return tracked(collectionName, collection(collectionName).binary()
+                .increment(id, IncrementOptions.incrementOptions().delta(delta)));
+    }
+
+    /**
+     * Subtracts from a counter document, see {@link #increment(String, String, long)}.
+     */
+    public Mono<CounterResult> decrement(String collectionName, String id, long delta) {
+        return tracked(collectionName, collection(collectionName).binary()
+                .decrement(id, DecrementOptions.decrementOptions().delta(delta)));
+    }
+
+    public Mono<MutationResult> remove(String collectionName, String id) {
+        return remove(collectionName, id, RemoveOptions.removeOptions());
+    }
+
+    public Mono<MutationResult> remove(String collectionName, String id, RemoveOptions options) {
+        return tracked(collectionName, collection(collectionName).remove(id, options));
+    }
+
+    /**
+     * The maximum number of operations run at a time by operations over many documents.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Executes a registered statement as a prepared query and streams its rows decoded into the given type.
+     * If the prepared plan can no longer be used, the statement is prepared again and retried once.
+     *
+     * @param statement  the statement to execute
+     * @param keyspace   the keyspace the statement is rendered for
+     * @param parameters the named parameters of the statement
+     * @param type       the type to decode rows into
+     * @param arguments  statement specific template arguments
+     * @return the decoded rows
+     */
+    public <T> Flux<T> query(Statement statement, Keyspace keyspace, JsonObject parameters, Class<T> type,
+                             Object... arguments) {
+        var query = statements.get(statement, keyspace, arguments);
+        var options = queryOptions.apply(statement.getKind(), keyspace.collection())
+                .adhoc(false)
+                .parameters(parameters);
+        return cluster.query(query, options)
+                .onErrorResume(PreparedStatementFailureException.class, e -> {
+                    _logger.debug("Prepared statement {} failed, preparing it again", statement);
+                    statements.recordReprepare();
+                    return cluster.query(query, options);
+                })
+                .flatMapMany(result -> result.rowsAs(type))
+                .timeout(operationTimeout)
+                .onErrorMap(TimeoutException.class, this::timedOut);
+    }
+
+    private ReactiveCollection collection(String collectionName) {
+        return scope.collection(collectionName);
+    }
+
+    private <T extends MutationResult> Mono<T> tracked(String collectionName, Mono<T> mutation) {
+        return bounded(mutation.doOnNext(result -> mutations.track(collectionName, result)));
+    }
+
+    private <T> Mono<T> bounded(Mono<T> operation) {
+        return operation.timeout(operationTimeout)
+                .onErrorMap(TimeoutException.class, this::timedOut);
+    }
+
+    private CouchbaseException timedOut(TimeoutException e) {
+        return new CouchbaseException("Operation did not complete within " + operationTimeout, e);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * How long expired records are kept before their documents expire.
+ * <p>
+ * Records are written with a document expiry of their own expiry plus the retain duration of their type, so that
+ * they are still available for a while after expiring, and are then removed by the data service instead of piling
+ * up in the collections and their indexes.
+ *
+ * @param sessions    the retain duration of sessions
+ * @param delegations the retain duration of delegations
+ * @param tokens      the retain duration of tokens
+ */
+public record Retention(Duration sessions, Duration delegations, Duration tokens) {
+
+    /**
+     * The latest document expiry the data service accepts, since expiries are stored as unsigned 32-bit seconds.
+     */
+    static final Instant MAX_EXPIRY = Instant.ofEpochSecond(0xFFFF_FFFFL);
+
+    public static Retention of(CouchbaseDataAccessProviderConfiguration configuration) {
+        return new Retention(Duration.ofSeconds(configuration.getSessionsTtlRetainDuration()),
+                Duration.ofSeconds(configuration.getDelegationsTtlRetainDuration()),
+                Duration.ofSeconds(configuration.getTokensTtlRetainDuration()));
+    }
+
+    public Instant sessionExpiry(Instant expiresAt) {
+        return expiry(expiresAt, sessions);
+    }
+
+    public Instant delegationExpiry(long expires) {
+        return expiry(expires, delegations);
+    }
+
+    public Instant tokenExpiry(long expires) {
+        return expiry(expires, tokens);
+    }
+
+    private static Instant expiry(long expires, Duration retain) {
+        return expires >= MAX_EXPIRY.getEpochSecond() ? MAX_EXPIRY : expiry(Instant.ofEpochSecond(expires), retain);
+    }
+
+    private static Instant expiry(Instant expires, Duration retain) {
+        return retain.compareTo(Duration.between(expires, MAX_EXPIRY)) >= 0 ? MAX_EXPIRY : expires.plus(retain);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import reactor.core.publisher.Mono;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.data.Session;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Near-cache of sessions by id, local to this node.
+ * <p>
+ * The cache is bounded by the approximate size of the cached sessions in bytes. Entries live for the configured
+ * time to live, but never past the expiry of their session. Sessions written through this node replace their
+ * entry, while sessions written on other nodes are seen once the entry expires, so the time to live bounds how
+ * stale a session read on another node than the one handling the flow can be.
+ */
+public final class SessionCache {
+
+    // Rough size of a session and its cache entry, besides the characters of its id and data
+    private static final int ENTRY_OVERHEAD = 128;
+
+    @Nullable
+    private final AsyncCache<String, Session> cache;
+
+    /**
+     * @param enabled      whether sessions are cached; when they are not, every read is loaded
+     * @param maximumBytes the maximum approximate size of the cached sessions
+     * @param timeToLive   the maximum time a session is cached
+     */
+    public SessionCache(boolean enabled, long maximumBytes, Duration timeToLive) {
+        this(enabled, maximumBytes, timeToLive, Ticker.systemTicker(), Clock.systemUTC());
+    }
+
+    SessionCache(boolean enabled, long maximumBytes, Duration timeToLive, Ticker ticker, Clock clock) {
+        if (!enabled) {
+            this.cache = null;
+            return;
+        }
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumBytes)
+                .weigher(SessionCache::weigh)
+                .expireAfter(new SessionExpiry(timeToLive, clock))
+                .ticker(ticker)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Returns the cached session, or loads it when it is not cached. Sessions that are not found are not cached.
+     *
+     * @param id     the id of the session
+     * @param loader loads the session, or completes empty if it does not exist
+     * @return the session, or empty if it does not exist
+     */
+    public Mono<Session> get(String id, Function<String, Mono<Session>> loader) {
+        if (cache == null) {
+            return loader.apply(id);
+        }
+        return Mono.fromFuture(() -> cache.get(id, (key, executor) -> loader.apply(key).toFuture()));
+    }
+
+    /**
+     * Caches a session that was written through this node.
+     */
+    public void put(Session session) {
+        if (cache != null) {
+            cache.put(session.getId(), CompletableFuture.completedFuture(session));
+        }
+    }
+
+    /**
+     * Moves the expiry of a cached session, keeping its entry for no longer than the time to live.
+     */
+    public void updateExpiration(String id, Instant expiresAt) {
+        if (cache != null) {
+            cache.synchronous().asMap()
+                    .computeIfPresent(id, (key, session) -> new Session(key, expiresAt, session.getData()));
+        }
+    }
+
+    public void invalidate(String id) {
+        if (cache != null) {
+            cache.synchronous().invalidate(id);
+        }
+    }
+
+    public long getHits() {
+        return cache == null ? 0 : cache.synchronous().stats().hitCount();
+    }
+
+    public long getMisses() {
+        return cache == null ? 0 : cache.synchronous().stats().missCount();
+    }
+
+    public long size() {
+        return cache == null ? 0 : cache.synchronous().estimatedSize();
+    }
+
+    void cleanUp() {
+        if (cache != null) {
+            cache.synchronous().cleanUp();
+        }
+    }
+
+    static int weigh(String id, Session session) {
+        var data = session.getData();
+        long bytes = ENTRY_OVERHEAD + 2L * (id.length() + (data == null ? 0 : data.length()));
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    private record SessionExpiry(Duration timeToLive, Clock clock) implements Expiry<String, Session> {
+
+        @Override
+        public long expireAfterCreate(String id, Session session, long currentTime) {
+            var untilExpires = Duration.between(clock.instant(), session.getExpiresAt());
+            var lifetime = untilExpires.compareTo(timeToLive) < 0 ? untilExpires : timeToLive;
+            return Math.max(0, lifetime.toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(String id, Session session, long currentTime, long currentDuration) {
+            return expireAfterCreate(id, session, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String id, Session session, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.curity.identityserver.sdk.Nullable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Coalesces session expiration updates and writes them behind, in batches.
+ * <p>
+ * Only the latest expiry of each session is kept until the next flush, so a session whose expiry slides many
+ * times within the window is touched once. Flushes run every window, which bounds how late an expiry is written.
+ * When too many sessions are pending, updates are written through instead of queued. Reads of a session should
+ * apply its {@link #queued(String) queued expiry}, since the stored one is stale until the flush.
+ */
+public final class SessionTouchQueue implements AutoCloseable {
+
+    private static final Logger _logger = LoggerFactory.getLogger(SessionTouchQueue.class);
+    private static final int MAX_PENDING = 100_000;
+
+    private final Map<String, Instant> pending = new ConcurrentHashMap<>();
+    private final BiFunction<String, Instant, Mono<?>> touch;
+    private final int maxConcurrency;
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    /**
+     * @param touch          sets the expiry of a session, given the instant it expires at
+     * @param window         how long updates are coalesced before they are written
+     * @param maxConcurrency the maximum number of touches written at a time
+     */
+    public SessionTouchQueue(BiFunction<String, Instant, Mono<?>> touch, Duration window, int maxConcurrency) {
+        this.touch = touch;
+        this.maxConcurrency = maxConcurrency;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "couchbase-session-touch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, window.toMillis(), window.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the expiry of a session, replacing any expiry queued for it before.
+     */
+    public void enqueue(String id, Instant expiresAt) {
+        if (pending.size() >= MAX_PENDING && !pending.containsKey(id)) {
+            _logger.debug("Session touch queue is full, touching session {} directly", id);
+            touchQuietly(id, expiresAt).block();
+            return;
+        }
+        pending.put(id, expiresAt);
+    }
+
+    /**
+     * Returns the expiry queued for a session, or null if none is waiting to be written.
+     */
+    @Nullable
+    public Instant queued(String id) {
+        return pending.get(id);
+    }
+
+    /**
+     * Drops the queued expiry of a session, for example because the session was removed.
+     */
+    public void cancel(String id) {
+        pending.remove(id);
+    }
+
+    /**
+     * Writes all queued expiries.
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        var start = System.nanoTime();
+        var batch = new ArrayList<Map.Entry<String, Instant>>(pending.size());
+        for (var entry : pending.entrySet()) {
+            // Only take the expiry out if it was not replaced in the meantime
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                batch.add(entry);
+            }
+        }
+        Flux.fromIterable(batch)
+                .flatMap(entry -> touchQuietly(entry.getKey(), entry.getValue()), maxConcurrency)
+                .blockLast();
+        var elapsed = System.nanoTime() - start;
+        flushes.incrementAndGet();
+        lastFlushNanos.set(elapsed);
+        maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+        _logger.trace("Flushed {} session touches in {} ns", batch.size(), elapsed);
+    }
+
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public Duration getLastFlushLatency() {
+        return Duration.ofNanos(lastFlushNanos.get());
+    }
+
+    public Duration getMaxFlushLatency() {
+        return Duration.ofNanos(maxFlushNanos.get());
+    }
+
+    /**
+     * Stops the periodic flushes and writes the expiries that are still queued.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                _logger.warn("Session touch flush did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Touches a session, logging instead of failing if it cannot be touched. A session removed meanwhile needs no
+     * touch.
+     */
+    private Mono<?> touchQuietly(String id, Instant expiresAt) {
+        return touch.apply(id, expiresAt)
+                .onErrorResume(DocumentNotFoundException.class, e -> Mono.empty())
+                .onErrorResume(e -> {
+                    _logger.warn("Could not update expiration of session {}: {}", id, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            _logger.warn("Session touch flush failed: {}", e.getMessage());
+        }
+    }
+}
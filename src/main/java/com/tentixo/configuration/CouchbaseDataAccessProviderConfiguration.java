@@ -58,6 +58,12 @@ public interface CouchbaseDataAccessProviderConfiguration extends Configuration
     @DefaultBoolean(true)
     // TODO: This makes it not so flexible, probably some parameter name mapping is needed
     boolean getUseScimParameterNames();
+
+    @Description("Look up accounts by email ignoring case. Requires emails to be indexed in lower case, " +
+            "which the plugin does when this is enabled")
+    @DefaultBoolean(false)
+    boolean getCaseInsensitiveEmailLookup();
+
     // Additional retain duration
 
     @Description("Sessions additional retain duration (in seconds)")
@@ -85,4 +91,147 @@ public interface CouchbaseDataAccessProviderConfiguration extends Configuration
     @RangeConstraint(min = 0.0, max = Long.MAX_VALUE)
     Long getDevicesTtlRetainDuration();
 
+    @Description("Maintain pointer documents from emails and phone numbers to accounts and from authorization " +
+            "code hashes to delegations, so that these are looked up with key-value gets instead of queries")
+    @DefaultBoolean(false)
+    boolean getMaintainLookupDocuments();
+
+    // Token cache
+
+    @Description("Cache tokens read by hash on each node. Revocations made on other nodes are only seen once " +
+            "the cached token expires, so enable this only if token status may be stale for the cache time to live")
+    @DefaultBoolean(false)
+    boolean getCacheTokens();
+
+    @Description("Maximum number of tokens cached on each node")
+    @DefaultLong(10000)
+    @RangeConstraint(min = 1.0, max = Long.MAX_VALUE)
+    Long getTokenCacheMaximumSize();
+
+    @Description("Maximum time a token is cached (in seconds), which is also how stale its status can be")
+    @DefaultLong(30)
+    @RangeConstraint(min = 1.0, max = Long.MAX_VALUE)
+    Long getTokenCacheTimeToLive();
+
+    // Session cache
+
+    @Description("Cache sessions on each node. Sessions written on other nodes are only seen once the cached " +
+            "session expires, so enable this only if requests of a flow are routed to the same node")
+    @DefaultBoolean(false)
+    boolean getCacheSessions();
+
+    @Description("Maximum approximate size of the sessions cached on each node (in bytes)")
+    @DefaultLong(64 * 1024 * 1024)
+    @RangeConstraint(min = 1.0, max = Long.MAX_VALUE)
+    Long getSessionCacheMaximumBytes();
+
+    @Description("Maximum time a session is cached (in seconds)")
+    @DefaultLong(60)
+    @RangeConstraint(min = 1.0, max = Long.MAX_VALUE)
+    Long getSessionCacheTimeToLive();
+
+    @Description("Window (in milliseconds) within which session expiration updates are coalesced and written " +
+            "behind in batches. 0 writes every update directly")
+    @DefaultLong(0)
+    @RangeConstraint(min = 0.0, max = 60 * 1000)
+    Long getSessionTouchWindow();
+
+    @Description("Remember on each node, for a short while, which nonces and tokens were looked up and not " +
+            "found. Nonces and tokens created on other nodes are reported as missing until this expires")
+    @DefaultBoolean(false)
+    boolean getCacheMissingLookups();
+
+    @Description("How long a missing nonce or token is remembered (in seconds)")
+    @DefaultLong(5)
+    @RangeConstraint(min = 1.0, max = 3600)
+    Long getMissingLookupCacheTimeToLive();
+
+    @Description("Maintain counter documents of delegations by status and by owner, so that counting them " +
+            "does not query the delegations")
+    @DefaultBoolean(false)
+    boolean getMaintainDelegationCounters();
+
+    @Description("How often the counters of delegations are corrected against the query count (in seconds). " +
+            "Only one node corrects them at a time")
+    @DefaultLong(300)
+    @RangeConstraint(min = 1.0, max = Long.MAX_VALUE)
+    Long getDelegationCounterReconciliationInterval();
+
+    @Description("Delete delegations and tokens past their retain duration in the background, for documents " +
+            "stored without an expiry, such as those written by earlier versions. Only one node sweeps at a time")
+    @DefaultBoolean(false)
+    boolean getSweepDeadRecords();
+
+    @Description("How often dead records are swept (in seconds)")
+    @DefaultLong(300)
+    @RangeConstraint(min = 1.0, max = Long.MAX_VALUE)
+    Long getSweepInterval();
+
+    @Description("Maximum number of dead records found and deleted per batch")
+    @DefaultLong(500)
+    @RangeConstraint(min = 1.0, max = 10000.0)
+    Long getSweepBatchSize();
+
+    @Description("Maximum number of dead records deleted per second")
+    @DefaultLong(1000)
+    @RangeConstraint(min = 1.0, max = Long.MAX_VALUE)
+    Long getSweepMaxDeletionsPerSecond();
+
+    @Description("Fail account creation when an account with the same username exists, instead of overwriting it")
+    @DefaultBoolean(false)
+    boolean getInsertOnlyAccountCreation();
+
+    // Query consistency
+
+    @Description("Scan consistency of queries that look up single records, such as an account by email. " +
+                 "AT_PLUS waits only for the index to include the writes made by this node, so a lookup may " +
+                 "miss a record written through another node until the index catches up")
+    @DefaultEnum("REQUEST_PLUS")
+    ScanConsistency getLookupScanConsistency();
+
+    @Description("Scan consistency of listing and count queries")
+    @DefaultEnum("NOT_BOUNDED")
+    ScanConsistency getListingScanConsistency();
+
+    // Account enumeration
+
+    @Description("How accounts are enumerated by a full export. QUERY walks key ordered pages with the query " +
+                 "service, SCAN_IDS and SCAN_CONTENT stream them unordered from the data service with a key range " +
+                 "scan, SCAN_IDS scanning keys only and then getting the accounts batch by batch. Listings are " +
+                 "scanned only when all accounts fit in the first page, since scans have no stable order")
+    @DefaultEnum("QUERY")
+    AccountEnumeration getAccountEnumeration();
+
+    @Description("Maximum number of accounts read per batch of a full export")
+    @DefaultLong(50)
+    @RangeConstraint(min = 1.0, max = 10000.0)
+    Long getScanBatchItemLimit();
+
+    // Non-blocking operations
+
+    @Description("Time after which an operation is abandoned (in milliseconds)")
+    @DefaultLong(10000)
+    @RangeConstraint(min = 1.0, max = Long.MAX_VALUE)
+    Long getOperationTimeout();
+
+    @Description("Maximum number of concurrent requests of an operation over many documents")
+    @DefaultLong(16)
+    @RangeConstraint(min = 1.0, max = 1024.0)
+    Long getMaxConcurrency();
+
+    enum ScanConsistency {
+        // Use whatever the index has, without waiting
+        NOT_BOUNDED,
+        // Wait until the index includes the mutations made through this node
+        AT_PLUS,
+        // Wait until the index includes all mutations made before the query
+        REQUEST_PLUS
+    }
+
+    enum AccountEnumeration {
+        QUERY,
+        SCAN_IDS,
+        SCAN_CONTENT
+    }
+
 }
@@ -1,32 +1,57 @@
 package com.tentixo.configuration;
 
 import com.couchbase.client.core.error.CollectionExistsException;
+import com.couchbase.client.core.error.CouchbaseException;
 import com.couchbase.client.core.error.IndexNotFoundException;
 import com.couchbase.client.core.error.InternalServerFailureException;
 import com.couchbase.client.core.retry.reactor.Retry;
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.Cluster;
 import com.couchbase.client.java.Scope;
+import com.couchbase.client.java.json.JsonObject;
 import com.couchbase.client.java.manager.collection.CollectionManager;
 import com.couchbase.client.java.manager.collection.CollectionSpec;
 import com.couchbase.client.java.manager.query.CreatePrimaryQueryIndexOptions;
 import com.couchbase.client.java.manager.query.WatchQueryIndexesOptions;
+import com.couchbase.client.java.query.QueryOptions;
+import com.tentixo.Parameters;
+import com.tentixo.query.Keyspace;
+import com.tentixo.query.Projection;
+import com.tentixo.query.Statement;
+import com.tentixo.query.StatementRegistry;
+import com.tentixo.token.CouchbaseDelegationDataAccessProvider;
+import com.tentixo.token.DelegationSummary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Mono;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import static com.couchbase.client.core.util.CbThrowables.findCause;
 import static com.couchbase.client.core.util.CbThrowables.hasCause;
+import static com.tentixo.configuration.SecondaryIndex.DELEGATIONS_BY_AUTHORIZATION_CODE_HASH;
+import static com.tentixo.configuration.SecondaryIndex.DELEGATIONS_BY_CLIENT_ID;
+import static com.tentixo.configuration.SecondaryIndex.DELEGATIONS_BY_OWNER;
+import static com.tentixo.configuration.SecondaryIndex.DELEGATIONS_BY_STATUS;
+import static com.tentixo.configuration.SecondaryIndex.TOKENS_BY_DELEGATION;
 import static com.tentixo.CouchbaseBucketDataAccessProvider.BUCKET_COLLECTION_NAME;
 import static com.tentixo.CouchbaseSessionDataAccessProvider.SESSION_COLLECTION_NAME;
+import static com.tentixo.DelegationCounters.COUNTER_COLLECTION_NAME;
+import static com.tentixo.LookupDocuments.LOOKUP_COLLECTION_NAME;
 import static com.tentixo.CouchbaseUserAccountDataAccessProvider.ACCOUNT_COLLECTION_NAME;
 import static com.tentixo.token.CouchbaseDelegationDataAccessProvider.DELEGATION_COLLECTION_NAME;
 import static com.tentixo.token.CouchbaseNonceDataAccessProvider.NONCE_COLLECTION_NAME;
 import static com.tentixo.token.CouchbaseTokenDataAccessProvider.TOKEN_COLLECTION_NAME;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.mapping;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 
 
 public class DBSetupRunners  {
@@ -37,8 +62,16 @@ public class DBSetupRunners  {
             .watchQueryIndexesOptions()
             .watchPrimary(true);
     private static final String DEFAULT_INDEX_NAME = "#primary";
+    private static final String DEFERRED_INDEXES_QUERY = "SELECT RAW name FROM system:indexes" +
+            " WHERE bucket_id = $bucket AND scope_id = $scope AND keyspace_id = $collection AND state = \"deferred\"";
     private CreatePrimaryQueryIndexOptions options;
+    private final CouchbaseDataAccessProviderConfiguration configuration;
+    private final StatementRegistry statements;
 
+    public DBSetupRunners(CouchbaseDataAccessProviderConfiguration configuration, StatementRegistry statements) {
+        this.configuration = configuration;
+        this.statements = statements;
+    }
 
     public void run(Cluster cluster, Bucket bucket, Scope scope) {
         String defaultBucket = bucket.name();
@@ -54,20 +87,17 @@ public class DBSetupRunners  {
 
         collections.stream().forEach(col -> createCollection(bucket, defaultScope, col));
         collections.stream().forEach(col -> setupPrimaryIndex(cluster, defaultBucket, defaultScope, col));
+        // Pointer and counter documents are only read by key
+        createCollection(bucket, defaultScope, LOOKUP_COLLECTION_NAME);
+        createCollection(bucket, defaultScope, COUNTER_COLLECTION_NAME);
+        setupSecondaryIndexes(cluster, defaultBucket, defaultScope);
+        verifyIndexUsage(cluster, defaultBucket, defaultScope);
     }
 
     private void setupPrimaryIndex(Cluster cluster, String bucketName, String scope, String collectionName) {
 
         Mono.fromRunnable(() -> createIndex(cluster, bucketName, scope, collectionName))
-                .retryWhen(Retry.onlyIf(ctx ->
-                                findCause(ctx.exception(), InternalServerFailureException.class)
-                                        .filter(exception -> CouchbaseError.create(exception)
-                                                .getErrorEntries().stream()
-                                                .anyMatch(err -> err.getMessage().contains("GSI")))
-                                        .isPresent())
-                        .exponentialBackoff(Duration.ofMillis(50), Duration.ofSeconds(3))
-                        .timeout(Duration.ofSeconds(60))
-                        .toReactorRetry())
+                .retryWhen(retryOnGsiError())
                 .block();
         Mono.fromRunnable(() -> waitForIndex(cluster, bucketName, scope, collectionName))
                 .retryWhen(Retry.onlyIf(ctx -> hasCause(ctx.exception(), IndexNotFoundException.class))
@@ -78,6 +108,126 @@ public class DBSetupRunners  {
         IndexCommons.waitUntilReady(cluster, bucketName, Duration.ofSeconds(60));
     }
 
+    /**
+     * Creates the secondary indexes with a deferred build and then builds them with one {@code BUILD INDEX}
+     * per collection, so that each collection is scanned once instead of once per index.
+     */
+    private void setupSecondaryIndexes(Cluster cluster, String bucketName, String scope) {
+        var definitions = SecondaryIndex.definitions(configuration.getUseScimParameterNames(),
+                configuration.getCaseInsensitiveEmailLookup(), configuration.getSweepDeadRecords());
+        definitions.forEach(index -> Mono.fromRunnable(() -> cluster.query(index.createStatement(bucketName, scope)))
+                .retryWhen(retryOnGsiError())
+                .block());
+        definitions.stream()
+                .collect(groupingBy(SecondaryIndex::collection, LinkedHashMap::new,
+                        mapping(SecondaryIndex::name, toList())))
+                .forEach((collection, names) -> {
+                    Mono.fromRunnable(() -> buildDeferredIndexes(cluster, bucketName, scope, collection))
+                            .retryWhen(retryOnGsiError())
+                            .block();
+                    cluster.queryIndexes().watchIndexes(bucketName, names, Duration.ofSeconds(60),
+                            WatchQueryIndexesOptions.watchQueryIndexesOptions()
+                                    .scopeName(scope)
+                                    .collectionName(collection));
+                });
+    }
+
+    private void buildDeferredIndexes(Cluster cluster, String bucketName, String scope, String collection) {
+        var parameters = JsonObject.create()
+                .put("bucket", bucketName)
+                .put("scope", scope)
+                .put("collection", collection);
+        var deferred = cluster.query(DEFERRED_INDEXES_QUERY, QueryOptions.queryOptions().parameters(parameters))
+                .rowsAs(String.class);
+        if (deferred.isEmpty()) {
+            return;
+        }
+        cluster.query(String.format("BUILD INDEX ON `%s`.`%s`.`%s`(%s)", bucketName, scope, collection,
+                deferred.stream().map(name -> "`" + name + "`").collect(joining(", "))));
+        logger.info("Building indexes {} on collection {}", deferred, collection);
+    }
+
+    /**
+     * Explains the runtime statements and warns about any that are not served by their intended index.
+     */
+    private void verifyIndexUsage(Cluster cluster, String bucketName, String scope) {
+        var useScimParameterNames = configuration.getUseScimParameterNames();
+        var accounts = new Keyspace(bucketName, scope, ACCOUNT_COLLECTION_NAME);
+        var delegations = new Keyspace(bucketName, scope, DELEGATION_COLLECTION_NAME);
+        List<IndexUsage> expectedUsages = new ArrayList<>();
+        for (Parameters parameter : List.of(Parameters.EMAIL, Parameters.PHONE)) {
+            var field = useScimParameterNames ? parameter.getScimName() : parameter.getName();
+            var ignoreCase = configuration.getCaseInsensitiveEmailLookup() && parameter.supportsCaseInsensitiveLookup();
+            var statement = Statement.accountByParameter(useScimParameterNames && parameter.isScimMultiValued(),
+                    ignoreCase);
+            expectedUsages.add(new IndexUsage(statements.get(statement, accounts, field,
+                    Projection.ALL.selectList(accounts)),
+                    SecondaryIndex.accountIndexName(parameter, useScimParameterNames, ignoreCase)));
+        }
+        // Accounts are paged by key, in the order of the primary index
+        expectedUsages.add(new IndexUsage(statements.get(Statement.ACCOUNT_FIND_PAGE, accounts), DEFAULT_INDEX_NAME));
+        for (Statement count : List.of(Statement.DELEGATION_COUNT_BY_PARAMETER,
+                Statement.DELEGATION_RECOUNT_BY_PARAMETER)) {
+            expectedUsages.add(new IndexUsage(statements.get(count, delegations, "owner"), DELEGATIONS_BY_OWNER));
+            expectedUsages.add(new IndexUsage(statements.get(count, delegations, "status"), DELEGATIONS_BY_STATUS));
+        }
+        for (String selectList : List.of(CouchbaseDelegationDataAccessProvider.SELECT_ALL,
+                DelegationSummary.SELECT_LIST)) {
+            expectedUsages.add(new IndexUsage(statements.get(Statement.DELEGATION_LIST_BY_OWNER, delegations,
+                    selectList), DELEGATIONS_BY_OWNER, true));
+            expectedUsages.add(new IndexUsage(statements.get(Statement.DELEGATION_LIST_ACTIVE, delegations,
+                    selectList), DELEGATIONS_BY_STATUS, true));
+        }
+        expectedUsages.add(new IndexUsage(statements.get(Statement.DELEGATION_BY_PARAMETER, delegations,
+                "authorizationCodeHash"), DELEGATIONS_BY_AUTHORIZATION_CODE_HASH));
+        // Bulk revocation finds issued delegations by owner or client, and the tokens issued from them
+        expectedUsages.add(new IndexUsage(statements.get(Statement.DELEGATION_IDS_BY_PARAMETER, delegations,
+                "owner"), DELEGATIONS_BY_OWNER));
+        expectedUsages.add(new IndexUsage(statements.get(Statement.DELEGATION_IDS_BY_PARAMETER, delegations,
+                "clientId"), DELEGATIONS_BY_CLIENT_ID));
+        expectedUsages.add(new IndexUsage(statements.get(Statement.TOKEN_HASHES_BY_DELEGATIONS,
+                new Keyspace(bucketName, scope, TOKEN_COLLECTION_NAME)), TOKENS_BY_DELEGATION));
+        // Queried delegations are commonly filtered by client or owner
+        expectedUsages.add(new IndexUsage(statements.get(Statement.DELEGATION_FIND_BY_QUERY, delegations,
+                " WHERE `clientId` = $p0", "META().id"), DELEGATIONS_BY_CLIENT_ID));
+        expectedUsages.add(new IndexUsage(statements.get(Statement.DELEGATION_FIND_BY_QUERY, delegations,
+                " WHERE `owner` = $p0", "META().id"), DELEGATIONS_BY_OWNER));
+
+        expectedUsages.forEach(usage -> verifyIndexUsage(cluster, usage));
+    }
+
+    private void verifyIndexUsage(Cluster cluster, IndexUsage usage) {
+        try {
+            var plans = cluster.query("EXPLAIN " + usage.statement()).rowsAsObject();
+            var usedIndexes = plans.stream()
+                    .flatMap(plan -> IndexCommons.indexesUsedBy(plan).stream())
+                    .collect(toSet());
+            if (!usedIndexes.contains(usage.index())) {
+                logger.warn("Statement '{}' is not served by index {}, the plan uses {}", usage.statement(),
+                        usage.index(), usedIndexes);
+            } else if (usage.ordered() && plans.stream().anyMatch(IndexCommons::sortsRows)) {
+                logger.warn("Statement '{}' is served by index {}, but its rows are sorted after the scan",
+                        usage.statement(), usage.index());
+            } else {
+                logger.debug("Statement '{}' is served by index {}", usage.statement(), usage.index());
+            }
+        } catch (CouchbaseException e) {
+            logger.warn("Could not explain statement '{}': {}", usage.statement(), e.getMessage());
+        }
+    }
+
+    private static reactor.util.retry.Retry retryOnGsiError() {
+        return Retry.onlyIf(ctx ->
+                        findCause(ctx.exception(), InternalServerFailureException.class)
+                                .filter(exception -> CouchbaseError.create(exception)
+                                        .getErrorEntries().stream()
+                                        .anyMatch(err -> err.getMessage().contains("GSI")))
+                                .isPresent())
+                .exponentialBackoff(Duration.ofMillis(50), Duration.ofSeconds(3))
+                .timeout(Duration.ofSeconds(60))
+                .toReactorRetry();
+    }
+
     private void createCollection(Bucket bucket, String scope, String collectionName) {
         CollectionManager collectionManager = bucket.collections();
         try {
@@ -109,4 +259,14 @@ public class DBSetupRunners  {
         cluster.queryIndexes().watchIndexes(bucketName, Collections.singletonList(DEFAULT_INDEX_NAME),
                 Duration.ofSeconds(10), WATCH_PRIMARY);
     }
+
+    /**
+     * @param ordered whether the statement is expected to read its rows in the order of the index, without sorting
+     */
+    private record IndexUsage(String statement, String index, boolean ordered) {
+
+        IndexUsage(String statement, String index) {
+            this(statement, index, false);
+        }
+    }
 }
@@ -13,8 +13,10 @@ import reactor.core.publisher.Mono;
 
 import java.sql.SQLException;
 import java.time.Duration;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeoutException;
 
 import static com.couchbase.client.core.logging.RedactableArgument.redactMeta;
@@ -66,6 +68,52 @@ public class IndexCommons {
         }
     }
 
+    /**
+     * Collects the names of the indexes scanned by a query plan, as returned by {@code EXPLAIN}.
+     *
+     * @param plan the plan of a statement
+     * @return the names of the indexes the plan scans
+     */
+    static Set<String> indexesUsedBy(JsonObject plan) {
+        Set<String> indexes = new HashSet<>();
+        collectIndexes(plan.toMap(), indexes);
+        return indexes;
+    }
+
+    /**
+     * Whether a query plan, as returned by {@code EXPLAIN}, sorts the rows itself instead of reading them in the
+     * order of an index.
+     *
+     * @param plan the plan of a statement
+     * @return whether the plan has an {@code Order} operator
+     */
+    static boolean sortsRows(JsonObject plan) {
+        return hasOperator(plan.toMap(), "Order");
+    }
+
+    private static boolean hasOperator(Object node, String operator) {
+        if (node instanceof Map<?, ?> map) {
+            return operator.equals(map.get("#operator"))
+                   || map.values().stream().anyMatch(value -> hasOperator(value, operator));
+        }
+        if (node instanceof List<?> list) {
+            return list.stream().anyMatch(value -> hasOperator(value, operator));
+        }
+        return false;
+    }
+
+    private static void collectIndexes(Object node, Set<String> indexes) {
+        if (node instanceof Map<?, ?> map) {
+            if (map.get("#operator") instanceof String operator && operator.contains("Scan")
+                && map.get("index") instanceof String index) {
+                indexes.add(index);
+            }
+            map.values().forEach(value -> collectIndexes(value, indexes));
+        } else if (node instanceof List<?> list) {
+            list.forEach(value -> collectIndexes(value, indexes));
+        }
+    }
+
     static List<Object> getIndexes(CouchbaseHttpClient httpClient) throws SQLException {
         try {
             HttpResponse response = httpClient.get(HttpTarget.manager(), HttpPath.of("/indexStatus"));
@@ -0,0 +1,115 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.configuration;
+
+import com.tentixo.Parameters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.tentixo.CouchbaseUserAccountDataAccessProvider.ACCOUNT_COLLECTION_NAME;
+import static com.tentixo.token.CouchbaseDelegationDataAccessProvider.DELEGATION_COLLECTION_NAME;
+import static com.tentixo.token.CouchbaseTokenDataAccessProvider.TOKEN_COLLECTION_NAME;
+
+/**
+ * A secondary GSI index on one of the plugin collections.
+ *
+ * @param name       the name of the index
+ * @param collection the collection the index is created on
+ * @param keys       the index key expressions
+ */
+public record SecondaryIndex(String name, String collection, List<String> keys) {
+
+    public static final String DELEGATIONS_BY_OWNER = "idx_delegations_owner_status_created";
+    public static final String DELEGATIONS_BY_AUTHORIZATION_CODE_HASH = "idx_delegations_authorizationCodeHash";
+    public static final String DELEGATIONS_BY_STATUS = "idx_delegations_status_created";
+    public static final String DELEGATIONS_BY_CLIENT_ID = "idx_delegations_clientId";
+    public static final String TOKENS_BY_DELEGATION = "idx_tokens_delegationsId_status";
+    public static final String DELEGATIONS_BY_STATUS_EXPIRES = "idx_delegations_status_expires";
+    public static final String TOKENS_BY_STATUS_EXPIRES = "idx_tokens_status_expires";
+
+    public SecondaryIndex(String name, String collection, String... keys) {
+        this(name, collection, List.of(keys));
+    }
+
+    /**
+     * Returns the definitions of all secondary indexes the plugin relies on.
+     * Usernames are looked up by key, so only the other account parameters are indexed. Delegations are listed
+     * by owner and by status in the order of the leading keys of their indexes, which end with the document key
+     * that breaks ties between delegations created at the same time, so the listings need no sort. The trailing
+     * keys hold the remaining fields of a delegation summary, so that listing summaries is covered by the index.
+     *
+     * @param useScimParameterNames      whether accounts are stored with SCIM attribute names
+     * @param caseInsensitiveEmailLookup whether emails are looked up ignoring case
+     * @param sweepDeadRecords           whether dead records are swept, which finds them by status and expiry
+     * @return the index definitions
+     */
+    public static List<SecondaryIndex> definitions(boolean useScimParameterNames, boolean caseInsensitiveEmailLookup,
+                                                   boolean sweepDeadRecords) {
+        List<SecondaryIndex> definitions = new ArrayList<>();
+        definitions.add(accountIndex(Parameters.EMAIL, useScimParameterNames, caseInsensitiveEmailLookup));
+        definitions.add(accountIndex(Parameters.PHONE, useScimParameterNames, false));
+        definitions.add(new SecondaryIndex(DELEGATIONS_BY_OWNER, DELEGATION_COLLECTION_NAME,
+                "`owner`", "`status`", "`created`", "META().id", "`clientId`", "`scope`", "`expires`"));
+        definitions.add(new SecondaryIndex(DELEGATIONS_BY_AUTHORIZATION_CODE_HASH, DELEGATION_COLLECTION_NAME,
+                "`authorizationCodeHash`"));
+        definitions.add(new SecondaryIndex(DELEGATIONS_BY_STATUS, DELEGATION_COLLECTION_NAME,
+                "`status`", "`created`", "META().id", "`owner`", "`clientId`", "`scope`", "`expires`"));
+        definitions.add(new SecondaryIndex(DELEGATIONS_BY_CLIENT_ID, DELEGATION_COLLECTION_NAME, "`clientId`"));
+        definitions.add(new SecondaryIndex(TOKENS_BY_DELEGATION, TOKEN_COLLECTION_NAME,
+                "`delegationsId`", "`status`"));
+        if (sweepDeadRecords) {
+            definitions.add(new SecondaryIndex(DELEGATIONS_BY_STATUS_EXPIRES, DELEGATION_COLLECTION_NAME,
+                    "`status`", "`expires`"));
+            definitions.add(new SecondaryIndex(TOKENS_BY_STATUS_EXPIRES, TOKEN_COLLECTION_NAME,
+                    "`status`", "`expires`"));
+        }
+        return definitions;
+    }
+
+    /**
+     * Returns the name of the index serving lookups of accounts by the given parameter.
+     * Indexes of lower cased values are named apart, so that switching case sensitivity creates a new index
+     * instead of keeping the existing one.
+     */
+    public static String accountIndexName(Parameters parameter, boolean useScimParameterNames, boolean ignoreCase) {
+        return "idx_accounts_" + (useScimParameterNames ? parameter.getScimName() : parameter.getName())
+               + (ignoreCase ? "_lower" : "");
+    }
+
+    /**
+     * Multi-valued SCIM attributes are indexed by the values of their array elements, with the same variable name
+     * as the {@code ANY ... SATISFIES} lookups so that the planner can use the index for them.
+     */
+    private static SecondaryIndex accountIndex(Parameters parameter, boolean useScimParameterNames,
+                                               boolean ignoreCase) {
+        var name = accountIndexName(parameter, useScimParameterNames, ignoreCase);
+        if (useScimParameterNames && parameter.isScimMultiValued()) {
+            var value = ignoreCase ? "LOWER(v.`value`)" : "v.`value`";
+            return new SecondaryIndex(name, ACCOUNT_COLLECTION_NAME,
+                    String.format("DISTINCT ARRAY %s FOR v IN `%s` END", value, parameter.getScimName()));
+        }
+        var field = "`" + (useScimParameterNames ? parameter.getScimName() : parameter.getName()) + "`";
+        return new SecondaryIndex(name, ACCOUNT_COLLECTION_NAME, ignoreCase ? "LOWER(" + field + ")" : field);
+    }
+
+    /**
+     * Renders the statement that creates this index with a deferred build.
+     */
+    public String createStatement(String bucket, String scope) {
+        return String.format("CREATE INDEX `%s` IF NOT EXISTS ON `%s`.`%s`.`%s`(%s) WITH {\"defer_build\": true}",
+                name, bucket, scope, collection, String.join(", ", keys));
+    }
+}
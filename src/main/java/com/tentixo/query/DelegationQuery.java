@@ -0,0 +1,156 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import com.couchbase.client.java.json.JsonObject;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.data.query.Filter;
+import se.curity.identityserver.sdk.data.query.ResourceQuery;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Translates a {@link ResourceQuery} on delegations into the clauses of {@link Statement#DELEGATION_FIND_BY_QUERY}.
+ * <p>
+ * Only a fixed set of delegation fields can be filtered and sorted on, and filter values are passed as named
+ * parameters {@code $p0, $p1, ...}. The rendered clauses therefore depend only on the shape of the filter, so
+ * statements are prepared once per shape, and no part of the query is ever spliced into the statement text.
+ */
+public final class DelegationQuery {
+
+    /**
+     * The most delegations a single query returns, whatever page size is requested.
+     */
+    public static final int MAX_COUNT = 1000;
+
+    private static final String DEFAULT_ORDER = "META().id";
+
+    // Keyed by lower case name, since SCIM attribute names are case insensitive
+    private static final Map<String, String> FIELDS = Map.of(
+            "id", "META().id",
+            "owner", "`owner`",
+            "clientid", "`clientId`",
+            "status", "`status`",
+            "created", "`created`",
+            "expires", "`expires`",
+            "scope", "`scope`",
+            "redirecturi", "`redirectUri`",
+            "authorizationcodehash", "`authorizationCodeHash`");
+
+    private final JsonObject parameters = JsonObject.create();
+    private int parameterCount;
+    private final String whereClause;
+    private final String orderByClause;
+
+    private DelegationQuery(@Nullable ResourceQuery query) {
+        var filter = query == null ? null : query.getFilter();
+        whereClause = filter == null ? "" : " WHERE " + where(filter);
+        orderByClause = query == null || query.getSorting() == null ? DEFAULT_ORDER : orderBy(query.getSorting());
+
+        var pagination = query == null ? null : query.getPagination();
+        long offset = pagination == null ? 0 : Math.max(0, pagination.getStartIndex());
+        long count = pagination == null || pagination.getCount() <= 0 ? MAX_COUNT
+                : Math.min(pagination.getCount(), MAX_COUNT);
+        parameters.put("offset", offset).put("limit", count);
+    }
+
+    /**
+     * Translates the given query.
+     *
+     * @param query the query, or null to list delegations in key order
+     * @return the translated query
+     * @throws IllegalArgumentException if the query filters or sorts on an unsupported attribute
+     */
+    public static DelegationQuery of(@Nullable ResourceQuery query) {
+        return new DelegationQuery(query);
+    }
+
+    /**
+     * The {@code WHERE} clause, including the keyword, or an empty string when the query has no filter.
+     */
+    public String whereClause() {
+        return whereClause;
+    }
+
+    public String orderByClause() {
+        return orderByClause;
+    }
+
+    /**
+     * The named parameters of the statement, holding the filter values, {@code $limit} and {@code $offset}.
+     */
+    public JsonObject parameters() {
+        return parameters;
+    }
+
+    private String where(Filter filter) {
+        if (filter instanceof Filter.AttributeExpression expression) {
+            return comparison(expression.getAttributeName(), expression.getOperator(), expression.getValue());
+        }
+        if (filter instanceof Filter.LogicalExpression expression) {
+            return "(" + where(expression.getLeftHandFilter()) + " " + expression.getLogicalOperator().name()
+                   + " " + where(expression.getRightHandFilter()) + ")";
+        }
+        if (filter instanceof Filter.NotExpression expression) {
+            return "NOT (" + where(expression.getFilter()) + ")";
+        }
+        throw new IllegalArgumentException("Unsupported filter: " + filter);
+    }
+
+    String comparison(String attributeName, Filter.AttributeOperator operator, @Nullable Object value) {
+        var field = field(attributeName);
+        return switch (operator) {
+            case PR -> field + " IS VALUED";
+            case EQ -> field + " = " + parameter(value);
+            case NE -> field + " != " + parameter(value);
+            case GT -> field + " > " + parameter(value);
+            case GE -> field + " >= " + parameter(value);
+            case LT -> field + " < " + parameter(value);
+            case LE -> field + " <= " + parameter(value);
+            case CO -> "CONTAINS(" + field + ", " + parameter(value) + ")";
+            case SW -> field + " LIKE " + parameter(escapeLike(value) + "%");
+            case EW -> field + " LIKE " + parameter("%" + escapeLike(value));
+        };
+    }
+
+    private String orderBy(ResourceQuery.Sorting sorting) {
+        var field = field(sorting.getSortBy());
+        var direction = sorting.getSortOrder() == ResourceQuery.Sorting.SortOrder.DESCENDING ? " DESC" : "";
+        // Ties are broken by key, so that consecutive pages neither repeat nor skip delegations
+        return DEFAULT_ORDER.equals(field) ? field + direction : field + direction + ", " + DEFAULT_ORDER;
+    }
+
+    private String parameter(@Nullable Object value) {
+        var name = "p" + parameterCount++;
+        parameters.put(name, value);
+        return "$" + name;
+    }
+
+    private static String field(String attributeName) {
+        var field = FIELDS.get(attributeName.toLowerCase(Locale.ROOT));
+        if (field == null) {
+            throw new IllegalArgumentException("Delegations cannot be queried by attribute: " + attributeName);
+        }
+        return field;
+    }
+
+    /**
+     * Escapes the wildcards of {@code LIKE}, whose default escape character is a backslash.
+     */
+    private static String escapeLike(@Nullable Object value) {
+        return String.valueOf(value).replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import com.couchbase.client.java.kv.MutationResult;
+import com.couchbase.client.java.kv.MutationState;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Collects the mutation tokens of the key-value writes made through this node, so that queries can be run with
+ * {@code AT_PLUS} consistency and read their own writes.
+ * <p>
+ * The tokens are kept per collection, so that a query only waits for the writes to the collection it reads, and
+ * not for the sessions, tokens and counters written meanwhile. A {@link MutationState} keeps only the latest
+ * sequence number per partition, so each state stays bounded by the number of partitions of the bucket.
+ */
+public final class MutationTracker {
+
+    private final Map<String, MutationState> states = new HashMap<>();
+
+    public synchronized void track(String collectionName, MutationResult result) {
+        result.mutationToken().ifPresent(token ->
+                states.computeIfAbsent(collectionName, name -> new MutationState()).add(token));
+    }
+
+    /**
+     * Returns a copy of the state collected for a collection, or nothing if no mutation of it has been tracked yet.
+     */
+    public synchronized Optional<MutationState> snapshot(String collectionName) {
+        return Optional.ofNullable(states.get(collectionName)).map(state -> new MutationState().add(state));
+    }
+
+    /**
+     * Returns a copy of the state collected for all collections, or nothing if no mutation has been tracked yet.
+     */
+    public synchronized Optional<MutationState> snapshot() {
+        if (states.isEmpty()) {
+            return Optional.empty();
+        }
+        var snapshot = new MutationState();
+        states.values().forEach(snapshot::add);
+        return Optional.of(snapshot);
+    }
+}
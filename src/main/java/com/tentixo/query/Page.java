@@ -0,0 +1,29 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.List;
+
+/**
+ * A page of a keyset paginated listing.
+ *
+ * @param items      the items of the page
+ * @param nextCursor the cursor of the next page, or null if this is the last page
+ * @param <T>        the type of the items
+ */
+public record Page<T>(List<T> items, @Nullable String nextCursor) {
+}
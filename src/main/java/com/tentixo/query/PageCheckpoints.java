@@ -0,0 +1,97 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Remembers at which key each offset of an ordered listing starts, so that offset based paging can seek to the
+ * closest known key instead of scanning from the beginning.
+ * <p>
+ * A checkpoint at offset {@code n} holds the key of the {@code n}-th document, i.e. the last key before the page
+ * starting at offset {@code n}. Checkpoints are dropped when a document at or before their key is added or removed,
+ * and expire after a while, since documents can also be changed by other nodes.
+ *
+ * @param <K> the type of the keys
+ */
+public final class PageCheckpoints<K extends Comparable<K>> {
+
+    private final NavigableMap<Long, Checkpoint<K>> checkpoints = new TreeMap<>();
+    private final int maxSize;
+    private final Duration timeToLive;
+    private final Clock clock;
+
+    public PageCheckpoints(int maxSize, Duration timeToLive) {
+        this(maxSize, timeToLive, Clock.systemUTC());
+    }
+
+    PageCheckpoints(int maxSize, Duration timeToLive, Clock clock) {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the closest checkpoint at or before the given offset.
+     *
+     * @param offset the offset of the page to read
+     * @return the offset and key of the checkpoint, or nothing if the listing has to be read from the beginning
+     */
+    public synchronized Optional<Map.Entry<Long, K>> floor(long offset) {
+        var now = clock.instant();
+        var entry = checkpoints.floorEntry(offset);
+        while (entry != null && entry.getValue().isExpired(now)) {
+            checkpoints.remove(entry.getKey());
+            entry = checkpoints.floorEntry(offset);
+        }
+        return Optional.ofNullable(entry).map(e -> Map.entry(e.getKey(), e.getValue().key()));
+    }
+
+    /**
+     * Records that the document at the given offset has the given key.
+     */
+    public synchronized void put(long offset, K key) {
+        if (offset <= 0) {
+            return;
+        }
+        checkpoints.put(offset, new Checkpoint<>(key, clock.instant().plus(timeToLive)));
+        while (checkpoints.size() > maxSize) {
+            checkpoints.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Drops the checkpoints whose offset is shifted by adding or removing the document with the given key.
+     */
+    public synchronized void invalidate(K changedKey) {
+        checkpoints.values().removeIf(checkpoint -> checkpoint.key().compareTo(changedKey) >= 0);
+    }
+
+    public synchronized int size() {
+        return checkpoints.size();
+    }
+
+    private record Checkpoint<K>(K key, Instant expiresAt) {
+        boolean isExpired(Instant now) {
+            return !now.isBefore(expiresAt);
+        }
+    }
+}
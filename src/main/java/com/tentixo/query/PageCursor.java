@@ -0,0 +1,59 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Opaque continuation cursors for keyset pagination.
+ * <p>
+ * A cursor holds the key of the last document of a page, so that the next page is read with a range scan starting
+ * right after it instead of skipping over all previous pages.
+ */
+public final class PageCursor {
+
+    private PageCursor() {
+    }
+
+    public static String encode(String lastKey) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(lastKey.getBytes(UTF_8));
+    }
+
+    /**
+     * Decodes a cursor created by {@link #encode(String)}.
+     *
+     * @param cursor    the cursor
+     * @param keyPrefix the prefix every key of the paged documents starts with
+     * @return the key of the last document of the previous page
+     * @throws IllegalArgumentException if the cursor is malformed or does not belong to the paged documents
+     */
+    public static String decode(String cursor, String keyPrefix) {
+        String lastKey = new String(Base64.getUrlDecoder().decode(cursor), UTF_8);
+        if (!lastKey.startsWith(keyPrefix)) {
+            throw new IllegalArgumentException("Invalid page cursor: " + cursor);
+        }
+        return lastKey;
+    }
+
+    /**
+     * Returns the exclusive upper bound of the keys starting with the given prefix.
+     */
+    public static String upperBound(String keyPrefix) {
+        var lastChar = keyPrefix.charAt(keyPrefix.length() - 1);
+        return keyPrefix.substring(0, keyPrefix.length() - 1) + (char) (lastChar + 1);
+    }
+}
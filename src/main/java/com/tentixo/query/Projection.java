@@ -0,0 +1,179 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import com.couchbase.client.java.kv.LookupInResult;
+import com.couchbase.client.java.kv.LookupInSpec;
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The top level attributes to read from an account document.
+ * <p>
+ * A projection either pushes its attributes down to the data service, as an explicit N1QL select list or a list of
+ * sub-document lookups, or reads whole documents and optionally retains or removes some attributes afterwards.
+ * Attribute names
+ * that cannot be safely written into a statement are never pushed down.
+ */
+public final class Projection {
+
+    /**
+     * Reads whole documents and keeps every attribute.
+     */
+    public static final Projection ALL = new Projection(null, null, null);
+
+    // The data service rejects sub-document requests with more paths than this
+    public static final int MAX_LOOKUP_IN_SPECS = 16;
+
+    @Nullable
+    private final List<String> attributes;
+    @Nullable
+    private final Set<String> retained;
+    @Nullable
+    private final Set<String> excluded;
+    @Nullable
+    private final String selectList;
+    @Nullable
+    private final List<LookupInSpec> lookupSpecs;
+
+    private Projection(@Nullable List<String> attributes, @Nullable Set<String> retained,
+                       @Nullable Set<String> excluded) {
+        this.attributes = attributes;
+        this.retained = retained;
+        this.excluded = excluded;
+        if (attributes == null) {
+            selectList = null;
+            lookupSpecs = null;
+        } else {
+            selectList = attributes.stream()
+                    .map(attribute -> "`" + attribute + "`")
+                    .collect(Collectors.joining(", "));
+            lookupSpecs = attributes.size() <= MAX_LOOKUP_IN_SPECS
+                    ? attributes.stream().map(attribute -> LookupInSpec.get(toSubDocumentPath(attribute))).toList()
+                    : null;
+        }
+    }
+
+    /**
+     * Creates a projection that pushes the given attributes down if their names allow it.
+     */
+    static Projection including(Set<String> attributes) {
+        if (attributes.isEmpty() || !attributes.stream().allMatch(Projection::isSafeIdentifier)) {
+            return retaining(attributes);
+        }
+        return new Projection(attributes.stream().sorted().toList(), null, null);
+    }
+
+    /**
+     * Creates a projection that reads whole documents and retains the given attributes afterwards.
+     */
+    static Projection retaining(Set<String> attributes) {
+        return new Projection(null, Set.copyOf(attributes), null);
+    }
+
+    /**
+     * Creates a projection that reads whole documents and removes the given attributes afterwards.
+     */
+    static Projection excluding(Set<String> attributes) {
+        return new Projection(null, null, Set.copyOf(attributes));
+    }
+
+    /**
+     * Returns whether the attributes are pushed down to the data service.
+     */
+    public boolean isPushedDown() {
+        return attributes != null;
+    }
+
+    /**
+     * Returns the pushed down attributes, in the order of {@link #lookupSpecs()}.
+     */
+    public List<String> attributes() {
+        if (attributes == null) {
+            throw new IllegalStateException("Projection is not pushed down");
+        }
+        return attributes;
+    }
+
+    /**
+     * Returns whether the attributes can be read with a single sub-document lookup.
+     */
+    public boolean fitsLookupIn() {
+        return lookupSpecs != null;
+    }
+
+    /**
+     * Returns the N1QL select list of this projection for the given keyspace.
+     */
+    public String selectList(Keyspace keyspace) {
+        return selectList != null ? selectList : "`" + keyspace.collection() + "`.*";
+    }
+
+    public List<LookupInSpec> lookupSpecs() {
+        if (lookupSpecs == null) {
+            throw new IllegalStateException("Projection does not fit in a sub-document lookup");
+        }
+        return lookupSpecs;
+    }
+
+    /**
+     * Collects the attributes that exist in the result of a lookup made with {@link #lookupSpecs()}.
+     */
+    public Map<String, Object> fromLookup(LookupInResult lookupResult) {
+        Map<String, Object> result = new HashMap<>();
+        for (int i = 0; i < lookupSpecs().size(); i++) {
+            if (lookupResult.exists(i)) {
+                result.put(attributes.get(i), lookupResult.contentAs(i, Object.class));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes the attributes that are not part of this projection from a document read in full.
+     *
+     * @param document the mutable document
+     * @return the given document
+     */
+    public Map<String, Object> apply(Map<String, Object> document) {
+        if (attributes != null) {
+            document.keySet().retainAll(attributes);
+        } else if (retained != null) {
+            document.keySet().retainAll(retained);
+        } else if (excluded != null) {
+            document.keySet().removeAll(excluded);
+        }
+        return document;
+    }
+
+    /**
+     * Escapes an attribute name so that it addresses a top level field, even if it contains path characters.
+     */
+    public static String toSubDocumentPath(String attributeName) {
+        if (attributeName.contains(".") || attributeName.contains("[") || attributeName.contains("`")) {
+            return "`" + attributeName.replace("`", "``") + "`";
+        }
+        return attributeName;
+    }
+
+    private static boolean isSafeIdentifier(String attributeName) {
+        return !attributeName.isEmpty() && attributeName.chars().allMatch(c -> c != '`' && c != '\\' && c >= 0x20);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.data.query.ResourceQuery;
+import se.curity.identityserver.sdk.data.query.ResourceQuery.AttributesEnumeration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translates attribute enumerations into {@link Projection projections}, keeping the most recently used ones.
+ * <p>
+ * The same few enumerations are requested over and over, so the select list and lookup specs are built once per
+ * distinct set of attributes rather than on every read.
+ */
+public final class Projections {
+
+    private static final int DEFAULT_MAX_SIZE = 256;
+
+    private final Map<Key, Projection> projections;
+
+    public Projections() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public Projections(int maxSize) {
+        this.projections = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Projection> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the projection for the given enumeration. Only inclusions are pushed down, exclusions read whole
+     * documents and remove their attributes afterwards.
+     *
+     * @param attributesEnumeration the enumeration, or null to read every attribute
+     * @return the projection
+     */
+    public Projection get(@Nullable AttributesEnumeration attributesEnumeration) {
+        if (attributesEnumeration == null) {
+            return Projection.ALL;
+        }
+        var inclusions = attributesEnumeration instanceof ResourceQuery.Inclusions;
+        var key = new Key(inclusions, Set.copyOf(attributesEnumeration.getAttributes()));
+        synchronized (projections) {
+            return projections.computeIfAbsent(key, k -> k.inclusions()
+                    ? Projection.including(k.attributes())
+                    : Projection.excluding(k.attributes()));
+        }
+    }
+
+    public int size() {
+        synchronized (projections) {
+            return projections.size();
+        }
+    }
+
+    private record Key(boolean inclusions, Set<String> attributes) {
+    }
+}
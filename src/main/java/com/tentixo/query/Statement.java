@@ -0,0 +1,114 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+/**
+ * N1QL statement templates executed by the plugin at runtime.
+ * <p>
+ * Templates are rendered with {@link String#format} where {@code %1$s} is the bucket, {@code %2$s} the scope,
+ * {@code %3$s} the collection and any following positions are statement specific arguments (never user input).
+ * User supplied values are always passed as named parameters, so a rendered statement is stable for a keyspace
+ * and can be prepared once and reused.
+ */
+public enum Statement {
+    ACCOUNT_BY_PARAMETER(Kind.LOOKUP, "SELECT %5$s FROM `%1$s`.`%2$s`.`%3$s`" +
+                                      " WHERE `%4$s` = $value AND CONTAINS(META().id, $prefix)"),
+    ACCOUNT_BY_PARAMETER_IGNORE_CASE(Kind.LOOKUP, "SELECT %5$s FROM `%1$s`.`%2$s`.`%3$s`" +
+                                                  " WHERE LOWER(`%4$s`) = $value AND CONTAINS(META().id, $prefix)"),
+    ACCOUNT_BY_MULTI_VALUED_PARAMETER(Kind.LOOKUP, "SELECT %5$s FROM `%1$s`.`%2$s`.`%3$s`" +
+                                                   " WHERE ANY v IN `%4$s` SATISFIES v.`value` = $value END" +
+                                                   " AND CONTAINS(META().id, $prefix)"),
+    ACCOUNT_BY_MULTI_VALUED_PARAMETER_IGNORE_CASE(Kind.LOOKUP, "SELECT %5$s FROM `%1$s`.`%2$s`.`%3$s`" +
+                                                               " WHERE ANY v IN `%4$s`" +
+                                                               " SATISFIES LOWER(v.`value`) = $value END" +
+                                                               " AND CONTAINS(META().id, $prefix)"),
+    ACCOUNT_UPDATE_PASSWORD(Kind.LOOKUP, "UPDATE `%1$s`.`%2$s`.`%3$s` SET `password` = $password" +
+                                         " WHERE META().id = $id"),
+    ACCOUNT_FIND_PAGE(Kind.LISTING, "SELECT META().id AS id, `%3$s` AS account FROM `%1$s`.`%2$s`.`%3$s`" +
+                                    " WHERE META().id > $after AND META().id < $before" +
+                                    " ORDER BY META().id LIMIT $limit OFFSET $offset"),
+    DELEGATION_BY_PARAMETER(Kind.LOOKUP, "SELECT `%3$s`.* FROM `%1$s`.`%2$s`.`%3$s`" +
+                                         " WHERE `%4$s` = $value"),
+    DELEGATION_LIST_BY_OWNER(Kind.LISTING, "SELECT %4$s FROM `%1$s`.`%2$s`.`%3$s`" +
+                                           " WHERE `owner` = $owner AND (`status` > $status" +
+                                           " OR (`status` = $status AND (`created` > $created" +
+                                           " OR (`created` = $created AND META().id > $id))))" +
+                                           " ORDER BY `status`, `created`, META().id LIMIT $limit OFFSET $offset"),
+    DELEGATION_LIST_ACTIVE(Kind.LISTING, "SELECT %4$s FROM `%1$s`.`%2$s`.`%3$s`" +
+                                         " WHERE `status` = $status AND (`created` > $created" +
+                                         " OR (`created` = $created AND META().id > $id))" +
+                                         " ORDER BY `created`, META().id LIMIT $limit OFFSET $offset"),
+    DELEGATION_IDS_BY_PARAMETER(Kind.CONSISTENT, "SELECT RAW META().id FROM `%1$s`.`%2$s`.`%3$s`" +
+                                                 " WHERE `%4$s` = $value AND `status` = $status"),
+    TOKEN_HASHES_BY_DELEGATIONS(Kind.CONSISTENT, "SELECT RAW META().id FROM `%1$s`.`%2$s`.`%3$s`" +
+                                                 " WHERE `delegationsId` IN $delegationIds AND `status` = $status"),
+    DELEGATION_COUNT_BY_PARAMETER(Kind.LISTING, "SELECT RAW COUNT(1) FROM `%1$s`.`%2$s`.`%3$s`" +
+                                                " WHERE `%4$s` = $value"),
+    DELEGATION_RECOUNT_BY_PARAMETER(Kind.CONSISTENT, "SELECT RAW COUNT(1) FROM `%1$s`.`%2$s`.`%3$s`" +
+                                                     " WHERE `%4$s` = $value"),
+    DELEGATION_FIND_BY_QUERY(Kind.LISTING, "SELECT `%3$s`.* FROM `%1$s`.`%2$s`.`%3$s`%4$s" +
+                                           " ORDER BY %5$s LIMIT $limit OFFSET $offset"),
+    COUNT_ITEMS(Kind.LISTING, "SELECT RAW COUNT(*) FROM `%1$s`.`%2$s`.`%3$s`"),
+    DEAD_RECORD_IDS(Kind.LISTING, "SELECT RAW META().id FROM `%1$s`.`%2$s`.`%3$s`" +
+                                  " WHERE `%4$s` IS NOT MISSING AND `%5$s` < $before" +
+                                  " LIMIT $limit");
+
+    /**
+     * Whether a statement looks up specific records or lists and counts them.
+     * The two kinds are run with separately configured scan consistency. Statements that must see every write
+     * made before them, such as the lookups of a mass revocation, are consistent and always run with
+     * {@code REQUEST_PLUS}.
+     */
+    public enum Kind {
+        LOOKUP, LISTING, CONSISTENT
+    }
+
+    private final Kind kind;
+    private final String template;
+
+    Statement(Kind kind, String template) {
+        this.kind = kind;
+        this.template = template;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the statement looking up an account by the value of an attribute. Multi-valued attributes are
+     * SCIM arrays of {@code {value, primary}} objects, matched when any of their values matches. Statements that
+     * ignore case expect the value to be passed in lower case.
+     *
+     * @param multiValued whether the attribute is multi-valued
+     * @param ignoreCase  whether values are compared ignoring case
+     * @return the statement
+     */
+    public static Statement accountByParameter(boolean multiValued, boolean ignoreCase) {
+        if (multiValued) {
+            return ignoreCase ? ACCOUNT_BY_MULTI_VALUED_PARAMETER_IGNORE_CASE : ACCOUNT_BY_MULTI_VALUED_PARAMETER;
+        }
+        return ignoreCase ? ACCOUNT_BY_PARAMETER_IGNORE_CASE : ACCOUNT_BY_PARAMETER;
+    }
+
+    String render(Keyspace keyspace, Object... arguments) {
+        var formatArguments = new Object[arguments.length + 3];
+        formatArguments[0] = keyspace.bucket();
+        formatArguments[1] = keyspace.scope();
+        formatArguments[2] = keyspace.collection();
+        System.arraycopy(arguments, 0, formatArguments, 3, arguments.length);
+        return String.format(template, formatArguments);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the rendered text of every {@link Statement} per keyspace.
+ * <p>
+ * The SDK keeps prepared plans keyed by the statement text, so handing out the very same text for a keyspace is
+ * what lets non ad-hoc queries reuse their plan instead of being parsed and planned on every call.
+ */
+public final class StatementRegistry {
+
+    // Statements rendered with projections vary with the requested attributes, so the registry is capped
+    private static final int MAX_SIZE = 1024;
+
+    private final Map<Key, String> statements = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder reprepares = new LongAdder();
+
+    /**
+     * Returns the statement text for the given keyspace, rendering it on first use.
+     *
+     * @param statement the statement template
+     * @param keyspace  the keyspace to render the statement for
+     * @param arguments statement specific template arguments, such as a column name
+     * @return the rendered statement
+     */
+    public String get(Statement statement, Keyspace keyspace, Object... arguments) {
+        var key = new Key(statement, keyspace, List.of(arguments));
+        var rendered = statements.get(key);
+        if (rendered != null) {
+            hits.increment();
+            return rendered;
+        }
+        misses.increment();
+        if (statements.size() >= MAX_SIZE) {
+            return statement.render(keyspace, arguments);
+        }
+        return statements.computeIfAbsent(key, k -> statement.render(keyspace, arguments));
+    }
+
+    /**
+     * Records that a prepared statement had to be prepared again, for example after an index change.
+     */
+    public void recordReprepare() {
+        reprepares.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getReprepares() {
+        return reprepares.sum();
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    private record Key(Statement statement, Keyspace keyspace, List<Object> arguments) {
+    }
+}
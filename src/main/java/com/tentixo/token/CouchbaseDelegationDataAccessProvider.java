@@ -14,27 +14,42 @@
 
 package com.tentixo.token;
 
+import com.couchbase.client.core.error.CasMismatchException;
 import com.couchbase.client.core.error.CouchbaseException;
 import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.core.retry.reactor.Retry;
 import com.couchbase.client.java.Scope;
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.InsertOptions;
+import com.couchbase.client.java.kv.LookupInSpec;
+import com.couchbase.client.java.kv.MutateInOptions;
 import com.couchbase.client.java.kv.MutateInSpec;
-import com.couchbase.client.java.query.QueryOptions;
-import com.couchbase.client.java.query.QueryScanConsistency;
 import com.tentixo.CouchbaseExecutor;
+import com.tentixo.DelegationCounters;
+import com.tentixo.LookupDocuments;
+import com.tentixo.ReactiveCouchbaseExecutor;
+import com.tentixo.Retention;
 import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration;
+import com.tentixo.query.DelegationQuery;
+import com.tentixo.query.Keyspace;
+import com.tentixo.query.Page;
+import com.tentixo.query.Statement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import se.curity.identityserver.sdk.Nullable;
 import se.curity.identityserver.sdk.data.authorization.Delegation;
 import se.curity.identityserver.sdk.data.authorization.DelegationStatus;
+import se.curity.identityserver.sdk.data.authorization.TokenStatus;
 import se.curity.identityserver.sdk.data.query.ResourceQuery;
 import se.curity.identityserver.sdk.datasource.DelegationDataAccessProvider;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
-import java.util.stream.Stream;
-
-import static com.tentixo.CouchbaseExecutor.QUERY_OPTIONS;
 
 /**
  * https://curity.io/docs/idsvr-java-plugin-sdk/latest/se/curity/identityserver/sdk/datasource/DelegationDataAccessProvider.html
@@ -42,117 +57,323 @@ import static com.tentixo.CouchbaseExecutor.QUERY_OPTIONS;
 public final class CouchbaseDelegationDataAccessProvider implements DelegationDataAccessProvider {
     private static final Logger _logger = LoggerFactory.getLogger(CouchbaseDelegationDataAccessProvider.class);
     public static final String DELEGATION_COLLECTION_NAME = "curity-delegations";
+    public static final String SELECT_ALL = "`" + DELEGATION_COLLECTION_NAME + "`.*";
+    private static final int MAX_CAS_RETRIES = 5;
+    // Tokens are looked up for this many delegations at a time
+    private static final int TOKEN_LOOKUP_BATCH_SIZE = 500;
     private final CouchbaseExecutor _couchbaseExecutor;
     private final Scope scope;
     public final com.couchbase.client.java.Collection collection;
     private final CouchbaseDataAccessProviderConfiguration _configuration;
+    private final Keyspace keyspace;
+    private final Keyspace tokenKeyspace;
+    private final ReactiveCouchbaseExecutor _reactiveExecutor;
+    private final LookupDocuments _lookups;
+    private final DelegationCounters _counters;
+    private final Retention _retention;
 
     public CouchbaseDelegationDataAccessProvider(CouchbaseDataAccessProviderConfiguration _configuration, CouchbaseExecutor couchbaseExecutor) {
         this._configuration = _configuration;
         this._couchbaseExecutor = couchbaseExecutor;
         this.scope = _couchbaseExecutor.getScope();
         this.collection = scope.collection(DELEGATION_COLLECTION_NAME);
+        this.keyspace = Keyspace.of(collection);
+        this.tokenKeyspace = Keyspace.of(scope.collection(CouchbaseTokenDataAccessProvider.TOKEN_COLLECTION_NAME));
+        this._reactiveExecutor = couchbaseExecutor.getReactive();
+        this._lookups = couchbaseExecutor.getLookups();
+        this._counters = couchbaseExecutor.getDelegationCounters();
+        this._retention = couchbaseExecutor.getRetention();
   }
 
+    /**
+     * Reads the status and the document in one sub-document lookup, and decodes the delegation only if it is
+     * issued, so that revoked delegations are rejected without decoding their claims and attributes.
+     */
     @Override
     public @Nullable Delegation getById(String id) {
-        Delegation delegation;
-        try {
-            delegation = collection.get(id).contentAs(Delegation.class);
-        }  catch (DocumentNotFoundException de) {
-            _logger.debug("Document not found: " + id);
+        var result = _reactiveExecutor.lookupIn(DELEGATION_COLLECTION_NAME, id,
+                List.of(LookupInSpec.get("status"), LookupInSpec.get(""))).block();
+        if (result == null) {
             return null;
         }
 
         // Only valid (i.e. status == issue) delegations are retrieved here
         // to mimic the JDBC DAP behavior.
-        var status = delegation.getStatus().name();
-        if (!DelegationStatus.issued.name().equals(status)) {
+        if (!result.exists(0) || !DelegationStatus.issued.name().equals(result.contentAs(0, String.class))) {
             return null;
         }
-        return delegation;
+        return result.contentAs(1, Delegation.class);
     }
 
+    /**
+     * Creates the delegation, and a pointer from its authorization code hash that expires with the delegation
+     * when lookup documents are maintained. The pointer is written concurrently, since readers fall back to a query
+     * when it points to a delegation that is not there yet. The delegation is kept for the retain duration of
+     * delegations after it expires.
+     */
     @Override
     public void create(Delegation delegation) {
-        collection.insert(delegation.getId(), delegation);
+        var insert = _reactiveExecutor.insert(DELEGATION_COLLECTION_NAME, delegation.getId(), delegation,
+                        InsertOptions.insertOptions().expiry(_retention.delegationExpiry(delegation.getExpires())))
+                .then(_counters.created(delegation.getOwner(), delegation.getStatus()));
+        var codeHash = delegation.getAuthorizationCodeHash();
+        if (codeHash == null) {
+            insert.block();
+            return;
+        }
+        Mono.when(insert, _lookups.put(LookupDocuments.Kind.CODE, codeHash, delegation.getId(),
+                Instant.ofEpochSecond(delegation.getExpires()))).block();
     }
 
+    /**
+     * Sets the status of a delegation. When counters are maintained, the previous status is read and the status
+     * replaced under its CAS, so that the counters follow the actual transition. Status changes keep the document
+     * expiry set when the delegation was created.
+     */
     @Override
     public long setStatus(String id, DelegationStatus status) {
         try {
-            collection.mutateIn(id, List.of(MutateInSpec.replace("status", status)));
-            return 1;
+            return changeStatus(id, status).block();
         }catch (CouchbaseException ce) {
             _logger.error(ce.getMessage());
             return 0;
         }
     }
 
-    private final String GET_DELEGATION_BY_PARAMETER_QUERY = "SELECT `%s`.* FROM `%s`" +
-            " WHERE %s = \"%s\"";
+    private Mono<Long> changeStatus(String id, DelegationStatus status) {
+        if (!_counters.isEnabled()) {
+            return _reactiveExecutor.mutateIn(DELEGATION_COLLECTION_NAME, id,
+                            List.of(MutateInSpec.replace("status", status)),
+                            MutateInOptions.mutateInOptions().preserveExpiry(true))
+                    .thenReturn(1L);
+        }
+        return Mono.defer(() -> _reactiveExecutor.lookupIn(DELEGATION_COLLECTION_NAME, id,
+                                List.of(LookupInSpec.get("status")))
+                        .flatMap(current -> _reactiveExecutor.mutateIn(DELEGATION_COLLECTION_NAME, id,
+                                        List.of(MutateInSpec.replace("status", status)),
+                                        MutateInOptions.mutateInOptions().cas(current.cas()).preserveExpiry(true))
+                                .thenReturn(current.exists(0) ? current.contentAs(0, String.class) : "")))
+                .retryWhen(Retry.onlyIf(ctx -> ctx.exception() instanceof CasMismatchException)
+                        .exponentialBackoff(Duration.ofMillis(10), Duration.ofMillis(500))
+                        .retryMax(MAX_CAS_RETRIES)
+                        .toReactorRetry())
+                .flatMap(previous -> _counters.statusChanged(previous, status).thenReturn(1L))
+                .defaultIfEmpty(0L);
+    }
+
+    /**
+     * Revokes every issued delegation of an owner, and every issued token of those delegations.
+     *
+     * @param owner the owner of the delegations
+     * @return the outcome for each delegation and token
+     * @see #revokeAllByClient(String)
+     */
+    public List<RevocationResult> revokeAllByOwner(String owner) {
+        return revokeAll("owner", owner);
+    }
 
-    private final String GET_DELEGATION_BY_PARAMETER_QUERY_PAGINATED = "SELECT `%s`.* FROM `%s`" +
-            " WHERE %s = \"%s\" LIMIT %s OFFSET %s";
+    /**
+     * Revokes every issued delegation of a client, and every issued token of those delegations, for example when
+     * the client is compromised.
+     * <p>
+     * The delegations and tokens are found through their indexes and revoked as they are found, with at most the
+     * configured maximum concurrency of status changes of each kind at a time. A record that fails to be revoked
+     * does not stop the others, and is reported with the reason in its result.
+     *
+     * @param clientId the client of the delegations
+     * @return the outcome for each delegation and token
+     */
+    public List<RevocationResult> revokeAllByClient(String clientId) {
+        return revokeAll("clientId", clientId);
+    }
 
-    private Stream<Delegation> queryDelegationByParam(String paramName, String value, long startIndex, long count) {
+    private List<RevocationResult> revokeAll(String parameter, String value) {
+        var concurrency = _reactiveExecutor.getMaxConcurrency();
+        var delegationIds = _reactiveExecutor.query(Statement.DELEGATION_IDS_BY_PARAMETER, keyspace,
+                        JsonObject.create().put("value", value).put("status", DelegationStatus.issued.name()),
+                        String.class, parameter)
+                .cache();
+        var delegations = delegationIds.flatMap(id -> changeStatus(id, DelegationStatus.revoked)
+                .map(changed -> changed > 0
+                        ? RevocationResult.revoked(RevocationResult.Type.DELEGATION, id)
+                        : RevocationResult.notFound(RevocationResult.Type.DELEGATION, id))
+                .onErrorResume(e -> Mono.just(revocationFailed(RevocationResult.Type.DELEGATION, id, e))),
+                concurrency);
+        var tokens = delegationIds.buffer(TOKEN_LOOKUP_BATCH_SIZE)
+                .concatMap(ids -> _reactiveExecutor.query(Statement.TOKEN_HASHES_BY_DELEGATIONS, tokenKeyspace,
+                        JsonObject.create()
+                                .put("delegationIds", JsonArray.from(ids))
+                                .put("status", TokenStatus.issued.name()),
+                        String.class))
+                .flatMap(hash -> CouchbaseTokenDataAccessProvider.replaceStatus(_reactiveExecutor,
+                                _couchbaseExecutor.getTokenCache(), hash, TokenStatus.revoked)
+                        .thenReturn(RevocationResult.revoked(RevocationResult.Type.TOKEN, hash))
+                        .onErrorResume(e -> Mono.just(revocationFailed(RevocationResult.Type.TOKEN, hash, e))),
+                        concurrency);
+        var results = Flux.merge(delegations, tokens).collectList().block();
+        _logger.debug("Revoked delegations and tokens by {}: {} results", parameter, results.size());
+        return results;
+    }
 
-        String query;
-        if (startIndex > 0 && count > 0) {
-            query = String.format(GET_DELEGATION_BY_PARAMETER_QUERY_PAGINATED, collection.name(), collection.name(),
-                    paramName, value, count, startIndex);
-        } else {
-            query = String.format(GET_DELEGATION_BY_PARAMETER_QUERY, collection.name(), collection.name(),
-                    paramName, value);
+    private static RevocationResult revocationFailed(RevocationResult.Type type, String id, Throwable e) {
+        if (e instanceof DocumentNotFoundException) {
+            return RevocationResult.notFound(type, id);
         }
+        _logger.warn("Could not revoke {} {}: {}", type, id, e.getMessage());
+        return RevocationResult.failed(type, id, e);
+    }
+
+    /**
+     * Lists delegations of an owner after the given position, in the order of the owner index, so that the index
+     * serves the listing and the skipped delegations are never fetched.
+     */
+    private <T> Flux<T> listByOwner(String owner, ListingPosition after, long offset, long limit, String selectList,
+                                    Class<T> type) {
+        var parameters = after.putInto(JsonObject.create())
+                .put("owner", owner)
+                .put("offset", offset)
+                .put("limit", boundedLimit(limit));
+        return _reactiveExecutor.query(Statement.DELEGATION_LIST_BY_OWNER, keyspace, parameters, type, selectList);
+    }
 
-        return queryDelegation(query);
+    /**
+     * Lists issued delegations created after the given position, in the order of the status index.
+     */
+    private <T> Flux<T> listActive(ListingPosition after, long offset, long limit, String selectList,
+                                   Class<T> type) {
+        var parameters = after.putInto(JsonObject.create())
+                .put("status", DelegationStatus.issued.name())
+                .put("offset", offset)
+                .put("limit", boundedLimit(limit));
+        return _reactiveExecutor.query(Statement.DELEGATION_LIST_ACTIVE, keyspace, parameters, type, selectList);
     }
 
-    private Stream<Delegation> queryDelegation(String query) {
-        return scope.query(query, QUERY_OPTIONS).rowsAs(Delegation.class).stream();
+    private static long boundedLimit(long limit) {
+        return limit > 0 ? Math.min(limit, DelegationQuery.MAX_COUNT) : DelegationQuery.MAX_COUNT;
+    }
+
+    private static Page<DelegationSummary> page(List<DelegationSummary> summaries, long limit) {
+        var nextCursor = !summaries.isEmpty() && summaries.size() == boundedLimit(limit)
+                ? ListingPosition.of(summaries.getLast()).toCursor()
+                : null;
+        return new Page<>(summaries, nextCursor);
+    }
+
+    private Flux<Delegation> queryDelegation(Statement statement, JsonObject parameters, Object... arguments) {
+        return _reactiveExecutor.query(statement, keyspace, parameters, Delegation.class, arguments);
+    }
+
+    private long countDelegationByParam(String paramName, String value) {
+        return _reactiveExecutor.query(Statement.DELEGATION_COUNT_BY_PARAMETER, keyspace,
+                        JsonObject.create().put("value", value), Long.class, paramName)
+                .next()
+                .defaultIfEmpty(0L)
+                .block();
     }
 
 
-    private Stream<Delegation> gueryDelegationByParam(String paramName, String value) {
-        return queryDelegationByParam(paramName, value, -1, -1);
+    private Flux<Delegation> gueryDelegationByParam(String paramName, String value) {
+        return queryDelegation(Statement.DELEGATION_BY_PARAMETER, JsonObject.create().put("value", value), paramName);
     }
 
+    /**
+     * Redeeming an authorization code reads the delegation through the pointer of the code hash when lookup
+     * documents are maintained, and queries it by the hash when there is no current pointer.
+     */
     @Override
     public @Nullable Delegation getByAuthorizationCodeHash(String authorizationCodeHash) {
-        return gueryDelegationByParam("authorizationCodeHash", authorizationCodeHash).findFirst().orElse(null);
+        return _lookups.target(LookupDocuments.Kind.CODE, authorizationCodeHash)
+                .flatMap(id -> _reactiveExecutor.get(DELEGATION_COLLECTION_NAME, id, Delegation.class))
+                .filter(delegation -> authorizationCodeHash.equals(delegation.getAuthorizationCodeHash()))
+                .switchIfEmpty(Mono.defer(() ->
+                        gueryDelegationByParam("authorizationCodeHash", authorizationCodeHash).next()))
+                .block();
     }
 
 
+    /**
+     * Returns delegations of the owner ordered by status and creation time. At most
+     * {@link DelegationQuery#MAX_COUNT} delegations are returned, also when no count is given.
+     */
     @Override
     public Collection<? extends Delegation> getByOwner(String owner, long startIndex, long count) {
-        return queryDelegationByParam("owner", owner, startIndex, count).toList();
+        return listByOwner(owner, ListingPosition.START, Math.max(0, startIndex), count, SELECT_ALL, Delegation.class)
+                .collectList()
+                .block();
     }
 
+    /**
+     * Returns issued delegations ordered by creation time. At most {@link DelegationQuery#MAX_COUNT} delegations
+     * are returned, also when no count is given.
+     */
     @Override
     public Collection<? extends Delegation> getAllActive(long startIndex, long count) {
-        return queryDelegationByParam("status", DelegationStatus.issued.name(), startIndex, count).toList();
+        return listActive(ListingPosition.START, Math.max(0, startIndex), count, SELECT_ALL, Delegation.class)
+                .collectList()
+                .block();
     }
 
-    private final String COUNT_DELEGATION_BY_PARAMETER_QUERY = "SELECT COUNT(1) FROM `%s`" +
-            " WHERE %s = \"%s\"";
+    /**
+     * Retrieves a page of summaries of the delegations of an owner, ordered by status and creation time.
+     * Pages are read by seeking past the last delegation of the previous page, so that reading a page costs the
+     * same however deep it is.
+     *
+     * @param owner  the owner of the delegations
+     * @param cursor the cursor returned with the previous page, or null to read the first page
+     * @param limit  the maximum number of delegations to retrieve
+     * @return the page, with a cursor for the next page if there may be more delegations
+     * @throws IllegalArgumentException if the cursor is not a valid delegation page cursor
+     */
+    public Page<DelegationSummary> getSummariesByOwner(String owner, @Nullable String cursor, long limit) {
+        var after = cursor == null ? ListingPosition.START : ListingPosition.fromCursor(cursor);
+        return page(listByOwner(owner, after, 0, limit, DelegationSummary.SELECT_LIST, DelegationSummary.class)
+                .collectList()
+                .block(), limit);
+    }
+
+    /**
+     * Retrieves a page of summaries of issued delegations, ordered by creation time.
+     *
+     * @param cursor the cursor returned with the previous page, or null to read the first page
+     * @param limit  the maximum number of delegations to retrieve
+     * @return the page, with a cursor for the next page if there may be more delegations
+     * @throws IllegalArgumentException if the cursor is not a valid delegation page cursor
+     * @see #getSummariesByOwner(String, String, long)
+     */
+    public Page<DelegationSummary> getActiveSummaries(@Nullable String cursor, long limit) {
+        var after = cursor == null ? ListingPosition.START : ListingPosition.fromCursor(cursor);
+        return page(listActive(after, 0, limit, DelegationSummary.SELECT_LIST, DelegationSummary.class)
+                .collectList()
+                .block(), limit);
+    }
 
     @Override
     public long getCountAllActive() {
-        String query = String.format(COUNT_DELEGATION_BY_PARAMETER_QUERY, collection.name(), "status", DelegationStatus.issued.name());
-        return scope.query(query, QUERY_OPTIONS).rowsAs(Long.class).getFirst();
+        if (_counters.isEnabled()) {
+            return _counters.countActive().block();
+        }
+        return countDelegationByParam("status", DelegationStatus.issued.name());
     }
 
     @Override
     public long getCountByOwner(String owner) {
-        String query = String.format(COUNT_DELEGATION_BY_PARAMETER_QUERY, collection.name(), "owner", owner);
-        return scope.query(query, QUERY_OPTIONS).rowsAs(Long.class).getFirst();
+        if (_counters.isEnabled()) {
+            return _counters.countByOwner(owner).block();
+        }
+        return countDelegationByParam("owner", owner);
     }
 
+    /**
+     * Lists delegations matching the filter of the query, in its sort order. The filter, sorting and pagination
+     * are translated into the statement, and at most {@link DelegationQuery#MAX_COUNT} delegations are returned.
+     */
     @Override
-    public Collection<? extends Delegation> getAll(ResourceQuery query) {
-        String queryString = String.format("SELECT `%s`.* FROM `%s`", DELEGATION_COLLECTION_NAME, DELEGATION_COLLECTION_NAME);
-        return queryDelegation(queryString).toList();
-
+    public Collection<? extends Delegation> getAll(@Nullable ResourceQuery query) {
+        var delegationQuery = DelegationQuery.of(query);
+        return queryDelegation(Statement.DELEGATION_FIND_BY_QUERY, delegationQuery.parameters(),
+                delegationQuery.whereClause(), delegationQuery.orderByClause())
+                .take(DelegationQuery.MAX_COUNT)
+                .collectList()
+                .block();
     }
 }
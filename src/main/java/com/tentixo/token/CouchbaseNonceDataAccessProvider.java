@@ -14,11 +14,14 @@
 
 package com.tentixo.token;
 
-import com.couchbase.client.core.error.DocumentNotFoundException;
-import com.couchbase.client.java.Collection;
+import com.couchbase.client.core.error.CasMismatchException;
 import com.couchbase.client.java.kv.InsertOptions;
+import com.couchbase.client.java.kv.LookupInSpec;
+import com.couchbase.client.java.kv.MutateInOptions;
 import com.couchbase.client.java.kv.MutateInSpec;
 import com.tentixo.CouchbaseExecutor;
+import com.tentixo.MissingLookupCache;
+import com.tentixo.ReactiveCouchbaseExecutor;
 import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,22 +37,30 @@ import java.util.List;
 public final class CouchbaseNonceDataAccessProvider implements NonceDataAccessProvider {
     private static final Logger _logger = LoggerFactory.getLogger(CouchbaseNonceDataAccessProvider.class);
     public static final String NONCE_COLLECTION_NAME = "curity-nonces";
+    private static final String STATUS_PATH = "nonceStatus";
+    private static final String CONSUMED_AT_PATH = "consumedAt";
+    private static final String CREATED_AT_PATH = "createdAt";
+    private static final String TTL_PATH = "nonceTtl";
     private final CouchbaseExecutor _couchbaseExecutor;
-    private final Collection collection;
+    private final ReactiveCouchbaseExecutor _reactiveExecutor;
     private final CouchbaseDataAccessProviderConfiguration _configuration;
+    private final MissingLookupCache _missingLookups;
 
     public CouchbaseNonceDataAccessProvider(CouchbaseDataAccessProviderConfiguration _configuration, CouchbaseExecutor couchbaseExecutor) {
         this._configuration = _configuration;
         this._couchbaseExecutor = couchbaseExecutor;
-        this.collection = couchbaseExecutor.getScope().collection(NONCE_COLLECTION_NAME);
+        this._reactiveExecutor = couchbaseExecutor.getReactive();
+        this._missingLookups = couchbaseExecutor.getMissingLookups();
     }
+    /**
+     * Returns the value of an issued nonce. Nonces past their time to live are treated as expired without
+     * writing their status, so reads never write.
+     */
     @Override
     public @Nullable String get(String nonce) {
-        Nonce nonceObject;
-        try {
-            nonceObject = collection.get(nonce).contentAs(Nonce.class);
-        } catch ( DocumentNotFoundException de) {
-            _logger.debug("Document not found: " + nonce);
+        Nonce nonceObject = _missingLookups.get(NONCE_COLLECTION_NAME, nonce,
+                id -> _reactiveExecutor.get(NONCE_COLLECTION_NAME, id, Nonce.class)).block();
+        if (nonceObject == null) {
             return null;
         }
         if (!NonceStatus.issued.name().equals(nonceObject.getNonceStatus())) {
@@ -62,9 +73,7 @@ public final class CouchbaseNonceDataAccessProvider implements NonceDataAccessPr
 
         _logger.trace("Nonce createdAt: {}, ttl: {}, now: {}", createdAt, ttl, now);
 
-
         if (createdAt + ttl <= now) {
-            expireNonce(nonce);
             return null;
         }
         return nonceObject.getNonceValue();
@@ -79,43 +88,46 @@ public final class CouchbaseNonceDataAccessProvider implements NonceDataAccessPr
         nonceObject.setNonceTtl(ttl);
         nonceObject.setNonceStatus(NonceStatus.issued.name());
         nonceObject.setDeleteableAt(createdAt + ttl + _configuration.getNoncesTtlRetainDuration());
-        collection.insert(nonce, nonceObject, InsertOptions.insertOptions().expiry(Instant.ofEpochSecond(nonceObject.getDeleteableAt())));
+        _reactiveExecutor.insert(NONCE_COLLECTION_NAME, nonce, nonceObject,
+                InsertOptions.insertOptions().expiry(Instant.ofEpochSecond(nonceObject.getDeleteableAt()))).block();
+        _missingLookups.invalidate(NONCE_COLLECTION_NAME, nonce);
     }
 
+    /**
+     * Consumes the nonce if it is issued and not past its time to live. The status and lifetime are read with one
+     * sub-document lookup, and the nonce is marked consumed under the CAS of that read, so a nonce is consumed
+     * exactly once even when nodes race for it.
+     * <p>
+     * This method doesn't change the deletableAt attribute. The time-to-live of a nonce is immutable (i.e. not
+     * extendable), so the deletableAt is never increased. Eventually we could reduce the deletableAt when the
+     * nonce is consumed, making it `deletableAt = consumedAt + retainDuration`. However we opted out for not doing
+     * it since there is no clear advantage and introduces more complexity. The document expiry is preserved, which
+     * a mutation would otherwise clear.
+     *
+     * @throws IllegalStateException if the nonce is not issued, has expired, or was changed while being consumed
+     */
     @Override
     public void consume(String nonce, long consumedAt) {
-        consumeNonce(nonce, consumedAt);
-    }
-
-    private void expireNonce(String nonce) {
-        changeStatus(nonce, NonceStatus.expired, null);
-    }
-
-    private void consumeNonce(String nonce, Long consumedAt) {
-        changeStatus(nonce, NonceStatus.consumed, consumedAt);
-    }
-
-    // This method doesn't change the deletableAt attribute, if already present
-    // - The time-to-live of a nonce is immutable (i.e. not extendable), so the deletableAt is never increased.
-    // - Eventually we could reduce the deletableAt when the nonce is consumed,
-    // making it `deletableAt = consumedAt + retainDuration`. However we opted out for not doing it since there is
-    // no clear advantage and introduces more complexity.
-    // Also, if the deletableAt was enabled when the nonce was created and disabled when the nonce is updated,
-    // then the original deletableAt is kept.
-    // We also don't add a deletableAt when the nonce is updated.
-    private void changeStatus(String nonce, NonceStatus status, Long maybeConsumedAt) {
-        if (status == NonceStatus.consumed) {
-            if (maybeConsumedAt == null) {
-                throw new IllegalArgumentException("consumedAt cannot be null");
-            }
-            collection.mutateIn(nonce, List.of(
-                    MutateInSpec.replace("nonceStatus", status.name()),
-                    MutateInSpec.replace("consumedAt", maybeConsumedAt)
-            ));
-        } else {
-            collection.mutateIn(nonce, List.of(
-                    MutateInSpec.replace("nonceStatus", status.name())
-            ));
+        var issued = _reactiveExecutor.lookupIn(NONCE_COLLECTION_NAME, nonce, List.of(
+                LookupInSpec.get(STATUS_PATH),
+                LookupInSpec.get(CREATED_AT_PATH),
+                LookupInSpec.get(TTL_PATH)
+        )).block();
+        if (issued == null || !issued.exists(0)
+            || !NonceStatus.issued.name().equals(issued.contentAs(0, String.class))) {
+            throw new IllegalStateException("Nonce is not issued");
+        }
+        if (issued.exists(1) && issued.exists(2)
+            && issued.contentAs(1, Long.class) + issued.contentAs(2, Long.class) <= consumedAt) {
+            throw new IllegalStateException("Nonce has expired");
+        }
+        try {
+            _reactiveExecutor.mutateIn(NONCE_COLLECTION_NAME, nonce, List.of(
+                    MutateInSpec.upsert(CONSUMED_AT_PATH, consumedAt),
+                    MutateInSpec.replace(STATUS_PATH, NonceStatus.consumed.name())
+            ), MutateInOptions.mutateInOptions().cas(issued.cas()).preserveExpiry(true)).block();
+        } catch (CasMismatchException e) {
+            throw new IllegalStateException("Nonce was changed while being consumed", e);
         }
     }
 }
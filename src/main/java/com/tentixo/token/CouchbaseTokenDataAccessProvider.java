@@ -15,13 +15,18 @@
 package com.tentixo.token;
 
 import com.couchbase.client.core.error.CouchbaseException;
-import com.couchbase.client.core.error.DocumentNotFoundException;
-import com.couchbase.client.java.Collection;
 import com.couchbase.client.java.kv.InsertOptions;
+import com.couchbase.client.java.kv.LookupInSpec;
+import com.couchbase.client.java.kv.MutateInOptions;
 import com.couchbase.client.java.kv.MutateInSpec;
+import com.couchbase.client.java.kv.MutationResult;
 import com.tentixo.CouchbaseExecutor;
+import com.tentixo.MissingLookupCache;
+import com.tentixo.ReactiveCouchbaseExecutor;
+import com.tentixo.Retention;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
 import se.curity.identityserver.sdk.Nullable;
 import se.curity.identityserver.sdk.data.authorization.Token;
 import se.curity.identityserver.sdk.data.authorization.TokenStatus;
@@ -34,47 +39,65 @@ public final class CouchbaseTokenDataAccessProvider implements TokenDataAccessPr
 
     private static final Logger _logger = LoggerFactory.getLogger(CouchbaseTokenDataAccessProvider.class);
     public static final String TOKEN_COLLECTION_NAME = "curity-tokens";
+    private static final String STATUS_PATH = "status";
+    private static final String EXPIRES_PATH = "expires";
     private final CouchbaseExecutor _couchbaseExecutor;
-    private final Collection collection;
+    private final ReactiveCouchbaseExecutor _reactiveExecutor;
+    private final TokenCache _tokenCache;
+    private final MissingLookupCache _missingLookups;
+    private final Retention _retention;
 
     public CouchbaseTokenDataAccessProvider(CouchbaseExecutor couchbaseExecutor) {
         _couchbaseExecutor = couchbaseExecutor;
-        this.collection = couchbaseExecutor.getScope().collection(TOKEN_COLLECTION_NAME);
+        _reactiveExecutor = couchbaseExecutor.getReactive();
+        _tokenCache = couchbaseExecutor.getTokenCache();
+        _missingLookups = couchbaseExecutor.getMissingLookups();
+        _retention = couchbaseExecutor.getRetention();
     }
 
+    /**
+     * Expired tokens are retained for a while after they expire, but are not returned.
+     */
     @Override
     public @Nullable Token getByHash(String tokenHash) {
-        try {
-            return collection.get(tokenHash).contentAs(Token.class);
-        } catch (DocumentNotFoundException de) {
-            _logger.debug("Document not found: " + tokenHash);
-            return null;
-        }
+        return _tokenCache.get(tokenHash, hash -> _missingLookups.get(TOKEN_COLLECTION_NAME, hash,
+                        id -> _reactiveExecutor.get(TOKEN_COLLECTION_NAME, id, Token.class)))
+                .filter(token -> !isExpired(token.getExpires()))
+                .block();
     }
 
+    /**
+     * Creates the token with a document expiry of its expiry plus the retain duration of tokens.
+     */
     @Override
     public void create(Token token) {
-        long expiration = token.getExpires();
-        Instant expInstant = Instant.ofEpochSecond(expiration);
-        collection.insert(token.getTokenHash(), token, InsertOptions.insertOptions().expiry(expInstant));
+        _reactiveExecutor.insert(TOKEN_COLLECTION_NAME, token.getTokenHash(), token,
+                InsertOptions.insertOptions().expiry(_retention.tokenExpiry(token.getExpires()))).block();
+        _missingLookups.invalidate(TOKEN_COLLECTION_NAME, token.getTokenHash());
     }
 
+    /**
+     * Reads only the status and expiry of the token with a sub-document lookup, unless the whole token is already
+     * cached. Expired tokens are not found.
+     */
     @Override
     public @Nullable String getStatus(String tokenHash) {
-        Token token;
-        try {
-            token = collection.get(tokenHash).contentAs(Token.class);
-        } catch (DocumentNotFoundException de) {
-            _logger.debug("Document not found: " + tokenHash);
-            return null;
+        Token cached = _tokenCache.getIfPresent(tokenHash);
+        if (cached != null) {
+            return isExpired(cached.getExpires()) ? null : cached.getStatus().toString();
         }
-        return token.getStatus().toString();
+        return _reactiveExecutor.lookupIn(TOKEN_COLLECTION_NAME, tokenHash,
+                        List.of(LookupInSpec.get(STATUS_PATH), LookupInSpec.get(EXPIRES_PATH)))
+                .filter(result -> result.exists(0))
+                .filter(result -> !result.exists(1) || !isExpired(result.contentAs(1, Long.class)))
+                .map(result -> result.contentAs(0, String.class))
+                .block();
     }
 
     @Override
     public long setStatusByTokenHash(String tokenHash, TokenStatus newStatus) {
         try {
-            collection.mutateIn(tokenHash, List.of(MutateInSpec.replace("token", newStatus.name())));
+            replaceStatus(_reactiveExecutor, _tokenCache, tokenHash, newStatus).block();
             return 1;
         } catch (CouchbaseException ce) {
             _logger.error(ce.getMessage());
@@ -82,6 +105,21 @@ public final class CouchbaseTokenDataAccessProvider implements TokenDataAccessPr
         }
     }
 
+    /**
+     * Replaces the status of a token, keeping its document expiry, and drops the token from the cache.
+     */
+    static Mono<MutationResult> replaceStatus(ReactiveCouchbaseExecutor reactiveExecutor, TokenCache tokenCache,
+                                              String tokenHash, TokenStatus newStatus) {
+        return reactiveExecutor.mutateIn(TOKEN_COLLECTION_NAME, tokenHash,
+                        List.of(MutateInSpec.replace(STATUS_PATH, newStatus.name())),
+                        MutateInOptions.mutateInOptions().preserveExpiry(true))
+                .doFinally(signal -> tokenCache.invalidate(tokenHash));
+    }
+
+    private static boolean isExpired(long expires) {
+        return expires <= Instant.now().getEpochSecond();
+    }
+
     @Override
     public long setStatus(String tokenId, TokenStatus newStatus) {
         // TODO: This is a deprecated method and should not be used.
@@ -0,0 +1,39 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.tentixo.token;
+
+/**
+ * The fields of a delegation shown when listing delegations, for example to let a user review their consents,
+ * without the claims and authentication attributes of the delegation.
+ *
+ * @param id       the id of the delegation
+ * @param owner    the subject the delegation was issued to
+ * @param clientId the client the delegation was issued to
+ * @param scope    the granted scope
+ * @param created  when the delegation was created, in epoch seconds
+ * @param expires  when the delegation expires, in epoch seconds
+ * @param status   the status of the delegation
+ */
+public record DelegationSummary(String id, String owner, String clientId, String scope, long created, long expires,
+                                String status) {
+
+    /**
+     * The select list of the listing statements, made of fields that the listing indexes hold, so that listing
+     * summaries are served from the index alone.
+     */
+    public static final String SELECT_LIST =
+            "META().id AS id, `owner`, `clientId`, `scope`, `created`, `expires`, `status`";
+}
@@ -0,0 +1,65 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.tentixo.token;
+
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.tentixo.query.PageCursor;
+
+/**
+ * The position of a delegation in a listing ordered by status, creation time and key, as carried by the cursors
+ * of seek based pagination.
+ *
+ * @param status  the status of the delegation
+ * @param created when the delegation was created, in epoch seconds
+ * @param id      the id of the delegation
+ */
+record ListingPosition(String status, long created, String id) {
+
+    /**
+     * The position before every delegation, since statuses are never empty.
+     */
+    static final ListingPosition START = new ListingPosition("", Long.MIN_VALUE, "");
+
+    static ListingPosition of(DelegationSummary summary) {
+        return new ListingPosition(summary.status(), summary.created(), summary.id());
+    }
+
+    /**
+     * Decodes a cursor created by {@link #toCursor()}.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static ListingPosition fromCursor(String cursor) {
+        try {
+            var position = JsonArray.fromJson(PageCursor.decode(cursor, "["));
+            return new ListingPosition(position.getString(0), position.getLong(1), position.getString(2));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid page cursor: " + cursor, e);
+        }
+    }
+
+    String toCursor() {
+        return PageCursor.encode(JsonArray.from(status, created, id).toString());
+    }
+
+    /**
+     * Puts the position into the named parameters of a listing statement.
+     */
+    JsonObject putInto(JsonObject parameters) {
+        return parameters.put("status", status).put("created", created).put("id", id);
+    }
+}
@@ -1,8 +1,13 @@
 package com.tentixo.token;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class Nonce {
     private String nonce, nonceStatus, nonceValue;
-    private long createdAt, nonceTtl, consumedAt, deleteableAt;
+    private long createdAt, nonceTtl, deleteableAt;
+    // Only present once consumed, so that consuming can insert it atomically
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long consumedAt;
 
     public String getNonce() {
         return nonce;
@@ -44,11 +49,11 @@ public class Nonce {
         this.nonceTtl = nonceTtl;
     }
 
-    public long getConsumedAt() {
+    public Long getConsumedAt() {
         return consumedAt;
     }
 
-    public void setConsumedAt(long consumedAt) {
+    public void setConsumedAt(Long consumedAt) {
         this.consumedAt = consumedAt;
     }
 
@@ -0,0 +1,45 @@
+/*
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package com.tentixo.token;
+
+import se.curity.identityserver.sdk.Nullable;
+
+/**
+ * The outcome of revoking one record in a bulk revocation.
+ *
+ * @param type    whether the record is a delegation or a token
+ * @param id      the id of the delegation, or the hash of the token
+ * @param revoked whether the record was revoked
+ * @param failure why the record could not be revoked, or null if it was revoked or had gone already
+ */
+public record RevocationResult(Type type, String id, boolean revoked, @Nullable String failure) {
+
+    public enum Type {
+        DELEGATION, TOKEN
+    }
+
+    static RevocationResult revoked(Type type, String id) {
+        return new RevocationResult(type, id, true, null);
+    }
+
+    static RevocationResult notFound(Type type, String id) {
+        return new RevocationResult(type, id, false, null);
+    }
+
+    static RevocationResult failed(Type type, String id, Throwable failure) {
+        return new RevocationResult(type, id, false, String.valueOf(failure.getMessage()));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.token;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import reactor.core.publisher.Mono;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.data.authorization.Token;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of tokens by hash, local to this node.
+ * <p>
+ * Entries live for the configured time to live, but never past the expiry of their token, and are evicted by
+ * Caffeine's W-TinyLFU policy when the cache is full. Status changes made through this node invalidate the entry,
+ * while changes made on other nodes are seen once the entry expires, so the time to live bounds how stale a
+ * token status can be. Concurrent reads of the same token share a single load.
+ */
+public final class TokenCache {
+
+    @Nullable
+    private final AsyncCache<String, Token> cache;
+
+    /**
+     * @param enabled     whether tokens are cached; when they are not, every read is loaded
+     * @param maximumSize the maximum number of cached tokens
+     * @param timeToLive  the maximum time a token is cached
+     */
+    public TokenCache(boolean enabled, long maximumSize, Duration timeToLive) {
+        this(enabled, maximumSize, timeToLive, Ticker.systemTicker(), Clock.systemUTC());
+    }
+
+    TokenCache(boolean enabled, long maximumSize, Duration timeToLive, Ticker ticker, Clock clock) {
+        if (!enabled) {
+            this.cache = null;
+            return;
+        }
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new TokenExpiry(timeToLive, clock))
+                .ticker(ticker)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Returns the cached token, or loads it when it is not cached. Tokens that are not found are not cached.
+     *
+     * @param tokenHash the hash of the token
+     * @param loader    loads the token, or completes empty if it does not exist
+     * @return the token, or empty if it does not exist
+     */
+    public Mono<Token> get(String tokenHash, Function<String, Mono<? extends Token>> loader) {
+        if (cache == null) {
+            return loader.apply(tokenHash).map(Token.class::cast);
+        }
+        return Mono.fromFuture(() -> cache.get(tokenHash, (hash, executor) -> loader.apply(hash)
+                .map(Token.class::cast)
+                .toFuture()));
+    }
+
+    /**
+     * Returns the token if it is cached and loaded, without loading it.
+     */
+    @Nullable
+    public Token getIfPresent(String tokenHash) {
+        if (cache == null) {
+            return null;
+        }
+        var cached = cache.getIfPresent(tokenHash);
+        return cached != null && cached.isDone() && !cached.isCompletedExceptionally() ? cached.join() : null;
+    }
+
+    public void invalidate(String tokenHash) {
+        if (cache != null) {
+            cache.synchronous().invalidate(tokenHash);
+        }
+    }
+
+    public long getHits() {
+        return cache == null ? 0 : cache.synchronous().stats().hitCount();
+    }
+
+    public long getMisses() {
+        return cache == null ? 0 : cache.synchronous().stats().missCount();
+    }
+
+    /**
+     * Returns the ratio of reads served from the cache since this node started.
+     */
+    public double getHitRate() {
+        return cache == null ? 0 : cache.synchronous().stats().hitRate();
+    }
+
+    public long size() {
+        return cache == null ? 0 : cache.synchronous().estimatedSize();
+    }
+
+    private record TokenExpiry(Duration timeToLive, Clock clock) implements Expiry<String, Token> {
+
+        @Override
+        public long expireAfterCreate(String tokenHash, Token token, long currentTime) {
+            var untilExpires = Duration.ofSeconds(token.getExpires() - clock.instant().getEpochSecond());
+            var lifetime = untilExpires.compareTo(timeToLive) < 0 ? untilExpires : timeToLive;
+            return Math.max(0, lifetime.toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(String tokenHash, Token token, long currentTime, long currentDuration) {
+            return expireAfterCreate(tokenHash, token, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String tokenHash, Token token, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.tentixo;
 
 import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration;
+import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration.AccountEnumeration;
+import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration.ScanConsistency;
 import com.tentixo.testcontainers.CouchbaseContainerMetadata;
 import org.testcontainers.containers.wait.strategy.Wait;
 import org.testcontainers.couchbase.CouchbaseContainer;
@@ -27,80 +29,245 @@ public class AbstractCouchbaseRunner {
         couchbaseContainer.start();
     }
 
-    public static CouchbaseDataAccessProviderConfiguration getConfiguration(String claim) {
-        return new CouchbaseDataAccessProviderConfiguration() {
-            @Override
-            public String getHost() {
-                return String.format("%s:%s", couchbaseContainer.getHost(), couchbaseContainer.getBootstrapCarrierDirectPort());
-            }
-
-            @Override
-            public boolean useTls() {
-                return false;
-            }
-
-            @Override
-            public String getUserName() {
-                return couchbaseContainer.getUsername();
-            }
-
-            @Override
-            public String getPassword() {
-                return couchbaseContainer.getPassword();
-            }
-
-            @Override
-            public String getBucket() {
-                return "curity";
-            }
-
-            @Override
-            public String getScope() {
-                return "_default";
-            }
-
-            @Override
-            public String getClaimQuery() {
-                return claim;
-            }
-
-            @Override
-            public boolean getUseScimParameterNames() {
-                return false;
-            }
-
-            @Override
-            public Long getSessionsTtlRetainDuration() {
-                return 24l * 60 * 60;
-            }
-
-            @Override
-            public Long getNoncesTtlRetainDuration() {
-                return 24l * 60 * 60;
-            }
-
-            @Override
-            public Long getDelegationsTtlRetainDuration() {
-                return 365l * 24 * 60 * 60;
-            }
-
-            @Override
-            public Long getTokensTtlRetainDuration() {
-                return 24l * 60 * 60;
-            }
-
-            @Override
-            public Long getDevicesTtlRetainDuration() {
-                return 24l * 60 * 60;
-            }
-
-            @Override
-            public String id() {
-                return "couchbase";
-            }
-
-        };
+    public static TestConfiguration getConfiguration(String claim) {
+        return new TestConfiguration(claim);
     }
 
-}
+    public static TestConfiguration getConfiguration(String claim,
+                                                     ScanConsistency lookupScanConsistency,
+                                                     ScanConsistency listingScanConsistency) {
+        var configuration = new TestConfiguration(claim);
+        configuration.lookupScanConsistency = lookupScanConsistency;
+        configuration.listingScanConsistency = listingScanConsistency;
+        return configuration;
+    }
+
+    /**
+     * Configuration of the test container. Tests that need other settings change the fields before creating
+     * the executor.
+     */
+    public static class TestConfiguration implements CouchbaseDataAccessProviderConfiguration {
+
+        private final String claim;
+        ScanConsistency lookupScanConsistency = ScanConsistency.REQUEST_PLUS;
+        ScanConsistency listingScanConsistency = ScanConsistency.REQUEST_PLUS;
+        AccountEnumeration accountEnumeration = AccountEnumeration.QUERY;
+        Long scanBatchItemLimit = 50L;
+        Long operationTimeout = 10000L;
+        Long maxConcurrency = 16L;
+        boolean insertOnlyAccountCreation = false;
+        boolean useScimParameterNames = false;
+        boolean caseInsensitiveEmailLookup = false;
+        boolean maintainLookupDocuments = false;
+        boolean cacheTokens = false;
+        Long tokenCacheMaximumSize = 10000L;
+        Long tokenCacheTimeToLive = 30L;
+        boolean cacheSessions = false;
+        Long sessionCacheMaximumBytes = 64L * 1024 * 1024;
+        Long sessionCacheTimeToLive = 60L;
+        Long sessionTouchWindow = 0L;
+        boolean cacheMissingLookups = false;
+        Long missingLookupCacheTimeToLive = 5L;
+        boolean maintainDelegationCounters = false;
+        Long delegationCounterReconciliationInterval = 300L;
+        boolean sweepDeadRecords = false;
+        Long sweepInterval = 300L;
+        Long sweepBatchSize = 500L;
+        Long sweepMaxDeletionsPerSecond = 1000L;
+
+        TestConfiguration(String claim) {
+            this.claim = claim;
+        }
+
+        @Override
+        public String getHost() {
+            return String.format("%s:%s", couchbaseContainer.getHost(), couchbaseContainer.getBootstrapCarrierDirectPort());
+        }
+
+        @Override
+        public boolean useTls() {
+            return false;
+        }
+
+        @Override
+        public String getUserName() {
+            return couchbaseContainer.getUsername();
+        }
+
+        @Override
+        public String getPassword() {
+            return couchbaseContainer.getPassword();
+        }
+
+        @Override
+        public String getBucket() {
+            return "curity";
+        }
+
+        @Override
+        public String getScope() {
+            return "_default";
+        }
+
+        @Override
+        public String getClaimQuery() {
+            return claim;
+        }
+
+        @Override
+        public boolean getUseScimParameterNames() {
+            return useScimParameterNames;
+        }
+
+        @Override
+        public boolean getCaseInsensitiveEmailLookup() {
+            return caseInsensitiveEmailLookup;
+        }
+
+        @Override
+        public boolean getMaintainLookupDocuments() {
+            return maintainLookupDocuments;
+        }
+
+        @Override
+        public boolean getCacheTokens() {
+            return cacheTokens;
+        }
+
+        @Override
+        public Long getTokenCacheMaximumSize() {
+            return tokenCacheMaximumSize;
+        }
+
+        @Override
+        public Long getTokenCacheTimeToLive() {
+            return tokenCacheTimeToLive;
+        }
+
+        @Override
+        public boolean getCacheSessions() {
+            return cacheSessions;
+        }
+
+        @Override
+        public Long getSessionCacheMaximumBytes() {
+            return sessionCacheMaximumBytes;
+        }
+
+        @Override
+        public Long getSessionCacheTimeToLive() {
+            return sessionCacheTimeToLive;
+        }
+
+        @Override
+        public Long getSessionTouchWindow() {
+            return sessionTouchWindow;
+        }
+
+        @Override
+        public boolean getCacheMissingLookups() {
+            return cacheMissingLookups;
+        }
 
+        @Override
+        public Long getMissingLookupCacheTimeToLive() {
+            return missingLookupCacheTimeToLive;
+        }
+
+        @Override
+        public boolean getMaintainDelegationCounters() {
+            return maintainDelegationCounters;
+        }
+
+        @Override
+        public Long getDelegationCounterReconciliationInterval() {
+            return delegationCounterReconciliationInterval;
+        }
+
+        @Override
+        public boolean getSweepDeadRecords() {
+            return sweepDeadRecords;
+        }
+
+        @Override
+        public Long getSweepInterval() {
+            return sweepInterval;
+        }
+
+        @Override
+        public Long getSweepBatchSize() {
+            return sweepBatchSize;
+        }
+
+        @Override
+        public Long getSweepMaxDeletionsPerSecond() {
+            return sweepMaxDeletionsPerSecond;
+        }
+
+        @Override
+        public boolean getInsertOnlyAccountCreation() {
+            return insertOnlyAccountCreation;
+        }
+
+        @Override
+        public ScanConsistency getLookupScanConsistency() {
+            return lookupScanConsistency;
+        }
+
+        @Override
+        public ScanConsistency getListingScanConsistency() {
+            return listingScanConsistency;
+        }
+
+        @Override
+        public AccountEnumeration getAccountEnumeration() {
+            return accountEnumeration;
+        }
+
+        @Override
+        public Long getScanBatchItemLimit() {
+            return scanBatchItemLimit;
+        }
+
+        @Override
+        public Long getOperationTimeout() {
+            return operationTimeout;
+        }
+
+        @Override
+        public Long getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        @Override
+        public Long getSessionsTtlRetainDuration() {
+            return 24l * 60 * 60;
+        }
+
+        @Override
+        public Long getNoncesTtlRetainDuration() {
+            return 24l * 60 * 60;
+        }
+
+        @Override
+        public Long getDelegationsTtlRetainDuration() {
+            return 365l * 24 * 60 * 60;
+        }
+
+        @Override
+        public Long getTokensTtlRetainDuration() {
+            return 24l * 60 * 60;
+        }
+
+        @Override
+        public Long getDevicesTtlRetainDuration() {
+            return 24l * 60 * 60;
+        }
+
+        @Override
+        public String id() {
+            return "couchbase";
+        }
+    }
+
+}
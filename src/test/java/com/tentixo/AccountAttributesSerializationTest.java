@@ -0,0 +1,39 @@
+package com.tentixo;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import se.curity.identityserver.sdk.attribute.AccountAttributes;
+import se.curity.identityserver.sdk.attribute.Attribute;
+
+import java.nio.charset.StandardCharsets;
+
+
+public class AccountAttributesSerializationTest {
+
+    public String accountSample = """
+        {
+          "userName": "morre",
+          "email": "morre@tentixo.com",
+          "phone": "+375295672678"
+        }
+        """;
+
+    @Test
+    public void testAccountAttributesDeserialization()
+    {
+        var serializer = CurityJsonSerializer.create();
+        var account = serializer.deserialize(AccountAttributes.class, accountSample.getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("morre", account.getUserName());
+        Assertions.assertEquals("morre@tentixo.com", account.get("email").getValue());
+        Assertions.assertEquals("+375295672678", account.get("phone").getValue());
+    }
+
+    @Test
+    public void testAccountAttributesRoundtrip()
+    {
+        var serializer = CurityJsonSerializer.create();
+        var account = AccountAttributes.of(Attribute.of("userName", "newGuy"), Attribute.of("phone", "123"));
+        var decoded = serializer.deserialize(AccountAttributes.class, serializer.serialize(account.toMap()));
+        Assertions.assertEquals(account.toMap(), decoded.toMap());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import org.junit.jupiter.api.Test;
+import se.curity.identityserver.sdk.attribute.AccountAttributes;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CouchbaseAccountLookupTest extends AbstractCouchbaseRunner {
+
+    @Test
+    void findsAccountByAnyOfItsEmailsAndPhoneNumbers() {
+        var configuration = getConfiguration(null);
+        configuration.useScimParameterNames = true;
+        var executor = new CouchbaseExecutor(configuration);
+        var userName = createScimAccount(executor);
+        try {
+            assertEquals(userName, executor.getByParameter(Parameters.EMAIL, userName + "@work.example", null)
+                    .getUserName());
+            assertEquals(userName, executor.getByParameter(Parameters.EMAIL, userName + "@Home.example", null)
+                    .getUserName());
+            assertEquals(userName, executor.getByParameter(Parameters.PHONE, "+46701234567", null).getUserName());
+            assertNull(executor.getByParameter(Parameters.EMAIL, userName + "@home.example", null));
+        } finally {
+            executor.delete(userName);
+        }
+    }
+
+    @Test
+    void findsAccountByEmailIgnoringCase() {
+        var configuration = getConfiguration(null);
+        configuration.useScimParameterNames = true;
+        configuration.caseInsensitiveEmailLookup = true;
+        var executor = new CouchbaseExecutor(configuration);
+        var userName = createScimAccount(executor);
+        try {
+            assertEquals(userName, executor.getByParameter(Parameters.EMAIL, userName + "@HOME.example", null)
+                    .getUserName());
+            assertEquals(userName, executor.getByParameter(Parameters.EMAIL, userName + "@Work.Example", null)
+                    .getUserName());
+        } finally {
+            executor.delete(userName);
+        }
+    }
+
+    private static String createScimAccount(CouchbaseExecutor executor) {
+        var userName = UUID.randomUUID().toString();
+        executor.create(AccountAttributes.fromMap(Map.of(
+                "userName", userName,
+                "emails", List.of(
+                        Map.of("value", userName + "@work.example", "primary", true),
+                        Map.of("value", userName + "@Home.example")),
+                "phoneNumbers", List.of(Map.of("value", "+46701234567", "primary", true)))));
+        return userName;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration.AccountEnumeration;
+import org.junit.jupiter.api.Test;
+import se.curity.identityserver.sdk.attribute.AccountAttributes;
+import se.curity.identityserver.sdk.attribute.Attribute;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CouchbaseAccountScanTest extends AbstractCouchbaseRunner {
+
+    @Test
+    void exportsAllAccountsScanningIds() {
+        exportsAllAccounts(AccountEnumeration.SCAN_IDS);
+    }
+
+    @Test
+    void exportsAllAccountsScanningContent() {
+        exportsAllAccounts(AccountEnumeration.SCAN_CONTENT);
+    }
+
+    @Test
+    void exportsAllAccountsQuerying() {
+        exportsAllAccounts(AccountEnumeration.QUERY);
+    }
+
+    @Test
+    void pagesThroughAllAccountsInKeyOrderWhenScanning() {
+        var configuration = getConfiguration(null);
+        configuration.accountEnumeration = AccountEnumeration.SCAN_IDS;
+        var executor = new CouchbaseExecutor(configuration);
+        var userNames = createAccounts(executor);
+
+        try {
+            List<String> pagedUserNames = new ArrayList<>();
+            var offset = 0L;
+            var page = executor.findAllPageable(offset, 2).getResources();
+            while (!page.isEmpty()) {
+                page.forEach(account -> pagedUserNames.add(((AccountAttributes) account).getUserName()));
+                offset += page.size();
+                page = executor.findAllPageable(offset, 2).getResources();
+            }
+
+            assertEquals(pagedUserNames.stream().sorted().toList(), pagedUserNames);
+            assertTrue(pagedUserNames.containsAll(userNames));
+        } finally {
+            userNames.forEach(executor::delete);
+        }
+    }
+
+    @Test
+    void listsAllAccountsInOnePageByScanning() {
+        var configuration = getConfiguration(null);
+        configuration.accountEnumeration = AccountEnumeration.SCAN_CONTENT;
+        var executor = new CouchbaseExecutor(configuration);
+        var userNames = createAccounts(executor);
+
+        try {
+            var listedUserNames = executor.findAllPageable(0, Long.MAX_VALUE).getResources().stream()
+                    .map(account -> ((AccountAttributes) account).getUserName())
+                    .toList();
+
+            assertEquals(listedUserNames.size(), listedUserNames.stream().distinct().count());
+            assertTrue(listedUserNames.containsAll(userNames));
+        } finally {
+            userNames.forEach(executor::delete);
+        }
+    }
+
+    private static void exportsAllAccounts(AccountEnumeration accountEnumeration) {
+        var configuration = getConfiguration(null);
+        configuration.accountEnumeration = accountEnumeration;
+        configuration.scanBatchItemLimit = 2L;
+        var executor = new CouchbaseExecutor(configuration);
+        var userNames = createAccounts(executor);
+
+        try {
+            List<String> exportedUserNames;
+            try (var accounts = executor.streamAccounts()) {
+                exportedUserNames = accounts.map(AccountAttributes::getUserName).toList();
+            }
+            assertEquals(exportedUserNames.size(), exportedUserNames.stream().distinct().count());
+            assertTrue(exportedUserNames.containsAll(userNames));
+            try (var ids = executor.streamAccountIds()) {
+                assertTrue(ids.toList().containsAll(userNames));
+            }
+        } finally {
+            userNames.forEach(executor::delete);
+        }
+    }
+
+    private static List<String> createAccounts(CouchbaseExecutor executor) {
+        var userNames = IntStream.range(0, 5).mapToObj(i -> UUID.randomUUID().toString()).toList();
+        userNames.forEach(userName -> executor.create(
+                AccountAttributes.of(Attribute.of("userName", userName), Attribute.of("phone", "123"))));
+        return userNames;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.tentixo;
+
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.UpsertOptions;
+import com.tentixo.CouchbaseDelegationDataAccessProviderTest.TestDelegation;
+import com.tentixo.token.CouchbaseDelegationDataAccessProvider;
+import org.junit.jupiter.api.Test;
+import se.curity.identityserver.sdk.data.authorization.DelegationStatus;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CouchbaseDeadRecordSweeperTest extends AbstractCouchbaseRunner {
+
+    private final CouchbaseExecutor executor = new CouchbaseExecutor(getConfiguration(null));
+    private final CouchbaseDelegationDataAccessProvider dap =
+            new CouchbaseDelegationDataAccessProvider(getConfiguration(null), executor);
+
+    @Test
+    void deletesOnlyRecordsPastTheirRetainDuration() {
+        var revoked = new TestDelegation(UUID.randomUUID().toString(), "my-client");
+        dap.create(revoked);
+        dap.setStatus(revoked.getId(), DelegationStatus.revoked);
+
+        var sweeper = executor.getDeadRecordSweeper();
+        sweeper.sweep();
+        sweeper.close();
+        assertNotNull(dap.getById(revoked.getId()));
+
+        var later = sweeperAfterRetention(executor, revoked);
+        assertTrue(later.sweep() > 0);
+        assertTrue(later.isLeader());
+        assertTrue(later.getItemsPurged() > 0);
+        assertTrue(later.getBytesReclaimed() > 0);
+
+        assertFalse(dap.collection.exists(revoked.getId()).exists());
+        later.close();
+    }
+
+    @Test
+    void countsOutDeletedDelegations() {
+        var configuration = getConfiguration(null);
+        configuration.maintainDelegationCounters = true;
+        var countingExecutor = new CouchbaseExecutor(configuration);
+        var countingDap = new CouchbaseDelegationDataAccessProvider(configuration, countingExecutor);
+        var revoked = new TestDelegation(UUID.randomUUID().toString(), "my-client");
+        countingDap.create(revoked);
+        countingDap.setStatus(revoked.getId(), DelegationStatus.revoked);
+        assertEquals(1, countingDap.getCountByOwner(revoked.getOwner()));
+
+        var sweeper = sweeperAfterRetention(countingExecutor, revoked);
+        sweeper.sweep();
+
+        assertEquals(0, countingDap.getCountByOwner(revoked.getOwner()));
+        sweeper.close();
+        countingExecutor.close();
+    }
+
+    @Test
+    void sweepsOnlyOnNodeHoldingLease() {
+        var leader = executor.getDeadRecordSweeper();
+        var follower = new CouchbaseExecutor(getConfiguration(null)).getDeadRecordSweeper();
+        leader.sweep();
+
+        assertEquals(0, follower.sweep());
+        assertFalse(follower.isLeader());
+        leader.close();
+        follower.sweep();
+        assertTrue(follower.isLeader());
+        follower.close();
+        assertNull(executor.getReactive().get(DelegationCounters.COUNTER_COLLECTION_NAME,
+                DeadRecordSweeper.LEASE_KEY, Object.class).block());
+    }
+
+    @Test
+    void leavesLeaseTakenOverByAnotherNode() {
+        var reactive = executor.getReactive();
+        var key = "lease::" + UUID.randomUUID();
+        var lease = new Lease(reactive, key, Duration.ofMinutes(1));
+        assertTrue(lease.acquire());
+        // The lease expired and another node took it over
+        reactive.upsert(DelegationCounters.COUNTER_COLLECTION_NAME, key,
+                JsonObject.create().put("holder", "other-node"), UpsertOptions.upsertOptions()).block();
+
+        lease.release();
+
+        assertNotNull(reactive.get(DelegationCounters.COUNTER_COLLECTION_NAME, key, Object.class).block());
+        reactive.remove(DelegationCounters.COUNTER_COLLECTION_NAME, key).block();
+    }
+
+    /**
+     * A sweeper whose clock is past the retain duration of the delegation, as if its document had no expiry.
+     */
+    private static DeadRecordSweeper sweeperAfterRetention(CouchbaseExecutor executor, TestDelegation delegation) {
+        var now = Instant.ofEpochSecond(delegation.getExpires())
+                .plus(Retention.of(getConfiguration(null)).delegations())
+                .plusSeconds(60);
+        return new DeadRecordSweeper(executor.getReactive(), executor.sweepTargets(), false, Duration.ofMinutes(5),
+                500, 1000, Clock.fixed(now, ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.tentixo.CouchbaseDelegationDataAccessProviderTest.TestDelegation;
+import com.tentixo.token.CouchbaseDelegationDataAccessProvider;
+import org.junit.jupiter.api.Test;
+import se.curity.identityserver.sdk.data.authorization.DelegationStatus;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CouchbaseDelegationCountersTest extends AbstractCouchbaseRunner {
+
+    private final CouchbaseExecutor executor;
+    private final CouchbaseDelegationDataAccessProvider counted;
+    private final CouchbaseDelegationDataAccessProvider queried;
+
+    CouchbaseDelegationCountersTest() {
+        var configuration = getConfiguration(null);
+        configuration.maintainDelegationCounters = true;
+        executor = new CouchbaseExecutor(configuration);
+        counted = new CouchbaseDelegationDataAccessProvider(configuration, executor);
+        var plain = getConfiguration(null);
+        queried = new CouchbaseDelegationDataAccessProvider(plain, new CouchbaseExecutor(plain));
+    }
+
+    @Test
+    void countsDelegationsByOwner() {
+        var owner = UUID.randomUUID().toString();
+        assertEquals(0, counted.getCountByOwner(owner));
+
+        counted.create(new TestDelegation(owner, "my-client"));
+        counted.create(new TestDelegation(owner, "my-client"));
+
+        assertEquals(2, counted.getCountByOwner(owner));
+        assertEquals(queried.getCountByOwner(owner), counted.getCountByOwner(owner));
+    }
+
+    @Test
+    void followsStatusTransitions() {
+        executor.getDelegationCounters().reconcile();
+        var active = counted.getCountAllActive();
+        var delegation = new TestDelegation(UUID.randomUUID().toString(), "my-client");
+
+        counted.create(delegation);
+        assertEquals(active + 1, counted.getCountAllActive());
+
+        assertEquals(1, counted.setStatus(delegation.getId(), DelegationStatus.revoked));
+        assertEquals(active, counted.getCountAllActive());
+
+        assertEquals(1, counted.setStatus(delegation.getId(), DelegationStatus.revoked));
+        assertEquals(active, counted.getCountAllActive());
+    }
+
+    @Test
+    void reconcilesWithQueryCount() {
+        executor.getDelegationCounters().reconcile();
+
+        assertEquals(queried.getCountAllActive(), counted.getCountAllActive());
+    }
+}
@@ -15,7 +15,10 @@
 package com.tentixo;
 
 import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration;
+import com.tentixo.query.DelegationQuery;
 import com.tentixo.token.CouchbaseDelegationDataAccessProvider;
+import com.tentixo.token.CouchbaseTokenDataAccessProvider;
+import com.tentixo.token.RevocationResult;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import se.curity.identityserver.sdk.Nullable;
@@ -25,17 +28,22 @@ import se.curity.identityserver.sdk.data.authorization.Delegation;
 import se.curity.identityserver.sdk.data.authorization.DelegationConsentResult;
 import se.curity.identityserver.sdk.data.authorization.DelegationStatus;
 import se.curity.identityserver.sdk.data.authorization.ScopeClaim;
+import se.curity.identityserver.sdk.data.authorization.TokenStatus;
 
 import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 class CouchbaseDelegationDataAccessProviderTest extends AbstractCouchbaseRunner
 {
     private final CouchbaseDataAccessProviderConfiguration configuration = getConfiguration(null);
+    private final CouchbaseExecutor executor = new CouchbaseExecutor(configuration);
     private final CouchbaseDelegationDataAccessProvider dap = new CouchbaseDelegationDataAccessProvider(configuration,
-            new CouchbaseExecutor(configuration));
+            executor);
 
     @Test
     void create()
@@ -77,7 +85,11 @@ class CouchbaseDelegationDataAccessProviderTest extends AbstractCouchbaseRunner
     @Test
     void getByAuthorizationCodeHash()
     {
-
+        var codeHash = UUID.randomUUID().toString();
+        var delegation = new TestDelegation("johndoe", "my-client", codeHash);
+        dap.create(delegation);
+        Assertions.assertEquals(delegation.getId(), dap.getByAuthorizationCodeHash(codeHash).getId());
+        Assertions.assertNull(dap.getByAuthorizationCodeHash(UUID.randomUUID().toString()));
     }
 
     @Test
@@ -91,6 +103,76 @@ class CouchbaseDelegationDataAccessProviderTest extends AbstractCouchbaseRunner
         Assertions.assertEquals(3, listOfDelegations.size());
     }
 
+    @Test
+    void getByOwnerLimitsFirstPage()
+    {
+        var randomUser = UUID.randomUUID().toString();
+        dap.create(new TestDelegation(randomUser, "my-client"));
+        dap.create(new TestDelegation(randomUser, "my-client"));
+        dap.create(new TestDelegation(randomUser, "my-client"));
+        Assertions.assertEquals(2, dap.getByOwner(randomUser, 0, 2).size());
+        Assertions.assertEquals(1, dap.getByOwner(randomUser, 2, 2).size());
+    }
+
+    @Test
+    void getSummariesByOwner()
+    {
+        var randomUser = UUID.randomUUID().toString();
+        var delegations = List.of(new TestDelegation(randomUser, "my-client"),
+                new TestDelegation(randomUser, "my-client"), new TestDelegation(randomUser, "other-client"));
+        delegations.forEach(dap::create);
+
+        var firstPage = dap.getSummariesByOwner(randomUser, null, 2);
+        Assertions.assertEquals(2, firstPage.items().size());
+        Assertions.assertNotNull(firstPage.nextCursor());
+        var secondPage = dap.getSummariesByOwner(randomUser, firstPage.nextCursor(), 2);
+        Assertions.assertEquals(1, secondPage.items().size());
+        Assertions.assertNull(secondPage.nextCursor());
+
+        var ids = new HashSet<String>();
+        firstPage.items().forEach(summary -> ids.add(summary.id()));
+        secondPage.items().forEach(summary -> ids.add(summary.id()));
+        Assertions.assertEquals(delegations.stream().map(TestDelegation::getId).collect(Collectors.toSet()), ids);
+        var summary = secondPage.items().getFirst();
+        Assertions.assertEquals(randomUser, summary.owner());
+        Assertions.assertEquals(DelegationStatus.issued.name(), summary.status());
+    }
+
+    @Test
+    void getSummariesByOwnerRejectsInvalidCursor()
+    {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> dap.getSummariesByOwner("johndoe", "not-a-cursor", 2));
+    }
+
+    @Test
+    void revokeAllByClient()
+    {
+        var clientId = UUID.randomUUID().toString();
+        var first = new TestDelegation("johndoe", clientId);
+        var second = new TestDelegation("janedoe", clientId);
+        var other = new TestDelegation("johndoe", "my-client");
+        List.of(first, second, other).forEach(dap::create);
+        var tokens = new CouchbaseTokenDataAccessProvider(executor);
+        var tokenHash = UUID.randomUUID().toString();
+        tokens.create(new TokenAdapter(UUID.randomUUID().toString(), tokenHash, first.getId(), "access_token",
+                "bearer", "opaque", "openid", Instant.now().getEpochSecond(),
+                Instant.now().plusSeconds(300).getEpochSecond(), TokenStatus.issued, "secure-idp", "johndoe",
+                StringOrArrayAdapter.of(clientId), Instant.now().getEpochSecond(), Map.of()));
+
+        var results = dap.revokeAllByClient(clientId);
+
+        Assertions.assertEquals(3, results.size());
+        Assertions.assertTrue(results.stream().allMatch(RevocationResult::revoked));
+        Assertions.assertEquals(Set.of(first.getId(), second.getId(), tokenHash),
+                results.stream().map(RevocationResult::id).collect(Collectors.toSet()));
+        Assertions.assertNull(dap.getById(first.getId()));
+        Assertions.assertNull(dap.getById(second.getId()));
+        Assertions.assertNotNull(dap.getById(other.getId()));
+        Assertions.assertEquals(TokenStatus.revoked.name(), tokens.getStatus(tokenHash));
+        Assertions.assertTrue(dap.revokeAllByClient(clientId).isEmpty());
+    }
+
     @Test
     void getAllActive()
     {
@@ -104,11 +186,20 @@ class CouchbaseDelegationDataAccessProviderTest extends AbstractCouchbaseRunner
     @Test
     void getCountByOwner()
     {
+        var randomUser = UUID.randomUUID().toString();
+        dap.create(new TestDelegation(randomUser, "my-client"));
+        dap.create(new TestDelegation(randomUser, "my-client"));
+        Assertions.assertEquals(2, dap.getCountByOwner(randomUser));
     }
 
     @Test
     void getAll()
     {
+        var delegation = new TestDelegation(UUID.randomUUID().toString(), "my-client");
+        dap.create(delegation);
+        var delegations = dap.getAll(null);
+        Assertions.assertTrue(delegations.size() <= DelegationQuery.MAX_COUNT);
+        Assertions.assertTrue(delegations.stream().anyMatch(d -> d.getId().equals(delegation.getId())));
     }
 
     static class TestDelegation implements Delegation
@@ -117,13 +208,20 @@ class CouchbaseDelegationDataAccessProviderTest extends AbstractCouchbaseRunner
         private final String _subject;
         private final String _clientId;
         private final long _created;
+        private final @Nullable String _authorizationCodeHash;
 
         TestDelegation(String subject, String clientId)
+        {
+            this(subject, clientId, null);
+        }
+
+        TestDelegation(String subject, String clientId, @Nullable String authorizationCodeHash)
         {
             _subject = subject;
             _created = Instant.now().getEpochSecond();
             _id = UUID.randomUUID().toString();
             _clientId = clientId;
+            _authorizationCodeHash = authorizationCodeHash;
         }
 
         @Override
@@ -177,7 +275,7 @@ class CouchbaseDelegationDataAccessProviderTest extends AbstractCouchbaseRunner
         @Override
         public @Nullable String getAuthorizationCodeHash()
         {
-            return null;
+            return _authorizationCodeHash;
         }
 
         @Override
@@ -0,0 +1,167 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.couchbase.client.java.json.JsonObject;
+import com.tentixo.CouchbaseDelegationDataAccessProviderTest.TestDelegation;
+import com.tentixo.token.CouchbaseDelegationDataAccessProvider;
+import org.junit.jupiter.api.Test;
+import se.curity.identityserver.sdk.attribute.AccountAttributes;
+import se.curity.identityserver.sdk.attribute.Attribute;
+import se.curity.identityserver.sdk.data.query.ResourceQuery.Inclusions;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.tentixo.CouchbaseExecutor.ACCOUNT_KEY_PREFIX;
+import static com.tentixo.LookupDocuments.LOOKUP_COLLECTION_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CouchbaseLookupDocumentsTest extends AbstractCouchbaseRunner {
+
+    private final CouchbaseExecutor executor;
+
+    CouchbaseLookupDocumentsTest() {
+        var configuration = getConfiguration(null);
+        configuration.maintainLookupDocuments = true;
+        executor = new CouchbaseExecutor(configuration);
+    }
+
+    @Test
+    void findsAccountByEmailPointer() {
+        var userName = UUID.randomUUID().toString();
+        var email = userName + "@example.com";
+        executor.create(AccountAttributes.of(Attribute.of("userName", userName), Attribute.of("email", email)));
+        assertNotNull(pointer(LookupDocuments.Kind.EMAIL, email));
+
+        assertEquals(userName, executor.getByParameter(Parameters.EMAIL, email, null).getUserName());
+
+        executor.delete(userName);
+        assertNull(pointer(LookupDocuments.Kind.EMAIL, email));
+        assertNull(executor.getByParameter(Parameters.EMAIL, email, null));
+    }
+
+    @Test
+    void findsAccountByPhonePointer() {
+        var userName = UUID.randomUUID().toString();
+        var phone = "+46" + Math.abs(userName.hashCode());
+        executor.create(AccountAttributes.of(Attribute.of("userName", userName), Attribute.of("phone", phone)));
+        assertNotNull(pointer(LookupDocuments.Kind.PHONE, phone));
+
+        assertEquals(userName, executor.getByParameter(Parameters.PHONE, phone, null).getUserName());
+
+        executor.delete(userName);
+        assertNull(pointer(LookupDocuments.Kind.PHONE, phone));
+        assertNull(executor.getByParameter(Parameters.PHONE, phone, null));
+    }
+
+    @Test
+    void readsOnlyIncludedAttributesThroughPointer() {
+        var userName = UUID.randomUUID().toString();
+        var email = userName + "@example.com";
+        executor.create(AccountAttributes.of(Attribute.of("userName", userName), Attribute.of("email", email),
+                Attribute.of("phone", "123")));
+        try {
+            var result = executor.getByParameter(Parameters.EMAIL, email, Inclusions.of(Set.of("phone")));
+            assertNotNull(result);
+            assertEquals("123", result.get("phone").getValue());
+            assertNull(result.get("email"));
+        } finally {
+            executor.delete(userName);
+        }
+    }
+
+    @Test
+    void fallsBackToQueryForStalePointer() {
+        var userName = UUID.randomUUID().toString();
+        var email = userName + "@example.com";
+        executor.create(AccountAttributes.of(Attribute.of("userName", userName), Attribute.of("email", email)));
+        executor.updateByUsername(userName, Map.of("email", "changed-" + email), null);
+        try {
+            assertNull(executor.getByParameter(Parameters.EMAIL, email, null));
+            assertEquals(userName, executor.getByParameter(Parameters.EMAIL, "changed-" + email, null)
+                    .getUserName());
+        } finally {
+            executor.delete(userName);
+        }
+    }
+
+    @Test
+    void movesEmailPointersOnUpdate() {
+        var userName = UUID.randomUUID().toString();
+        var email = userName + "@example.com";
+        executor.create(AccountAttributes.of(Attribute.of("userName", userName), Attribute.of("email", email)));
+        executor.updateByUsername(userName, Map.of("email", "changed-" + email), null);
+        try {
+            assertNull(pointer(LookupDocuments.Kind.EMAIL, email));
+            assertEquals(ACCOUNT_KEY_PREFIX + userName,
+                    pointer(LookupDocuments.Kind.EMAIL, "changed-" + email).getString("key"));
+        } finally {
+            executor.delete(userName);
+        }
+        assertNull(pointer(LookupDocuments.Kind.EMAIL, "changed-" + email));
+    }
+
+    @Test
+    void doesNotPointEmailsThatWereNotApplied() {
+        var userName = UUID.randomUUID().toString();
+        var email = userName + "@example.com";
+        executor.create(AccountAttributes.of(Attribute.of("userName", userName), Attribute.of("phone", "123")));
+        executor.updateByUsername(userName, Map.of("email", email), null);
+        try {
+            assertNull(pointer(LookupDocuments.Kind.EMAIL, email));
+        } finally {
+            executor.delete(userName);
+        }
+    }
+
+    @Test
+    void keepsPointersTakenOverByAnotherAccount() {
+        var userName = UUID.randomUUID().toString();
+        var otherUserName = UUID.randomUUID().toString();
+        var email = userName + "@example.com";
+        executor.create(AccountAttributes.of(Attribute.of("userName", userName), Attribute.of("email", email)));
+        executor.create(AccountAttributes.of(Attribute.of("userName", otherUserName), Attribute.of("email", email)));
+
+        executor.delete(userName);
+        try {
+            assertEquals(ACCOUNT_KEY_PREFIX + otherUserName,
+                    pointer(LookupDocuments.Kind.EMAIL, email).getString("key"));
+            assertEquals(otherUserName, executor.getByParameter(Parameters.EMAIL, email, null).getUserName());
+        } finally {
+            executor.delete(otherUserName);
+        }
+    }
+
+    @Test
+    void findsDelegationByCodeHashPointer() {
+        var delegations = new CouchbaseDelegationDataAccessProvider(getConfiguration(null), executor);
+        var codeHash = UUID.randomUUID().toString();
+        var delegation = new TestDelegation("johndoe", "my-client", codeHash);
+        delegations.create(delegation);
+
+        var pointer = pointer(LookupDocuments.Kind.CODE, codeHash);
+        assertEquals(delegation.getId(), pointer.getString("key"));
+        assertEquals(delegation.getId(), delegations.getByAuthorizationCodeHash(codeHash).getId());
+    }
+
+    private JsonObject pointer(LookupDocuments.Kind kind, String value) {
+        return executor.getReactive().get(LOOKUP_COLLECTION_NAME, LookupDocuments.key(kind, value), JsonObject.class)
+                .block();
+    }
+}
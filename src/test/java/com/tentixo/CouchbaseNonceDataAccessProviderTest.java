@@ -53,6 +53,24 @@ public final class CouchbaseNonceDataAccessProviderTest extends AbstractCouchbas
         Assertions.assertNull(retrievedNonce);
     }
 
+    @Test
+    public void consumesNonceOnlyOnce()
+    {
+        var nonce = UUID.randomUUID().toString();
+        dap.save(nonce, "{\"foo\": \"bar\"}", Instant.now().getEpochSecond(), 200L);
+        dap.consume(nonce, Instant.now().getEpochSecond());
+        Assertions.assertThrows(IllegalStateException.class, () -> dap.consume(nonce, Instant.now().getEpochSecond()));
+    }
+
+    @Test
+    public void doesNotConsumeExpiredNonce() throws InterruptedException
+    {
+        var nonce = UUID.randomUUID().toString();
+        dap.save(nonce, "{\"foo\": \"bar\"}", Instant.now().getEpochSecond(), 1L);
+        Thread.sleep(1500);
+        Assertions.assertThrows(IllegalStateException.class, () -> dap.consume(nonce, Instant.now().getEpochSecond()));
+    }
+
     @Test
     public void nonceExpires() throws InterruptedException
     {
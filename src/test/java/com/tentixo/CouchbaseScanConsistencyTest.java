@@ -0,0 +1,120 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.tentixo.CouchbaseDelegationDataAccessProviderTest.TestDelegation;
+import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration;
+import com.tentixo.configuration.CouchbaseDataAccessProviderConfiguration.ScanConsistency;
+import com.tentixo.token.CouchbaseDelegationDataAccessProvider;
+import com.tentixo.token.RevocationResult;
+import org.junit.jupiter.api.Test;
+import se.curity.identityserver.sdk.attribute.AccountAttributes;
+import se.curity.identityserver.sdk.attribute.Attribute;
+import se.curity.identityserver.sdk.data.query.ResourceQuery.Inclusions;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class CouchbaseScanConsistencyTest extends AbstractCouchbaseRunner {
+
+    @Test
+    void atPlusReadsOwnDelegationWrites() {
+        var dap = delegationProvider(ScanConsistency.AT_PLUS, ScanConsistency.AT_PLUS);
+        var owner = UUID.randomUUID().toString();
+        dap.create(new TestDelegation(owner, "my-client"));
+        dap.create(new TestDelegation(owner, "my-client"));
+        dap.create(new TestDelegation(owner, "my-client"));
+
+        assertEquals(3, dap.getByOwner(owner, 0, 50).size());
+        assertEquals(3, dap.getCountByOwner(owner));
+    }
+
+    @Test
+    void atPlusReadsOwnAccountWrites() {
+        var executor = new CouchbaseExecutor(
+                getConfiguration(null, ScanConsistency.AT_PLUS, ScanConsistency.AT_PLUS));
+        var userName = UUID.randomUUID().toString();
+        var email = userName + "@tentixo.com";
+        executor.create(AccountAttributes.of(Attribute.of("userName", userName), Attribute.of("email", email)));
+
+        var result = executor.getByParameter(Parameters.EMAIL, email, Inclusions.of(Set.of("email")));
+        assertNotNull(result);
+        assertEquals(email, result.get("email").getValue());
+
+        executor.delete(userName);
+    }
+
+    @Test
+    void requestPlusReadsWritesOfOtherNodes() {
+        var writer = delegationProvider(ScanConsistency.NOT_BOUNDED, ScanConsistency.NOT_BOUNDED);
+        var reader = delegationProvider(ScanConsistency.REQUEST_PLUS, ScanConsistency.REQUEST_PLUS);
+        var owner = UUID.randomUUID().toString();
+        writer.create(new TestDelegation(owner, "my-client"));
+        writer.create(new TestDelegation(owner, "my-client"));
+
+        assertEquals(2, reader.getByOwner(owner, 0, 50).size());
+        assertEquals(2, reader.getCountByOwner(owner));
+    }
+
+    @Test
+    void revocationReadsWritesOfOtherNodesWhenNotBounded() {
+        var writer = delegationProvider(ScanConsistency.NOT_BOUNDED, ScanConsistency.NOT_BOUNDED);
+        var revoker = delegationProvider(ScanConsistency.NOT_BOUNDED, ScanConsistency.NOT_BOUNDED);
+        var clientId = UUID.randomUUID().toString();
+        var first = new TestDelegation("johndoe", clientId);
+        var second = new TestDelegation("janedoe", clientId);
+        writer.create(first);
+        writer.create(second);
+
+        var results = revoker.revokeAllByClient(clientId);
+
+        assertEquals(Set.of(first.getId(), second.getId()),
+                results.stream().map(RevocationResult::id).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void notBoundedEventuallyReadsWrites() throws InterruptedException {
+        var dap = delegationProvider(ScanConsistency.NOT_BOUNDED, ScanConsistency.NOT_BOUNDED);
+        var owner = UUID.randomUUID().toString();
+        dap.create(new TestDelegation(owner, "my-client"));
+        dap.create(new TestDelegation(owner, "my-client"));
+
+        assertEquals(2, eventually(() -> dap.getCountByOwner(owner), 2));
+        assertEquals(2, dap.getByOwner(owner, 0, 50).size());
+    }
+
+    private static CouchbaseDelegationDataAccessProvider delegationProvider(ScanConsistency lookup,
+                                                                            ScanConsistency listing) {
+        CouchbaseDataAccessProviderConfiguration configuration = getConfiguration(null, lookup, listing);
+        return new CouchbaseDelegationDataAccessProvider(configuration, new CouchbaseExecutor(configuration));
+    }
+
+    private static long eventually(LongSupplier supplier, long expected) throws InterruptedException {
+        var deadline = Instant.now().plus(Duration.ofSeconds(10));
+        var value = supplier.getAsLong();
+        while (value != expected && Instant.now().isBefore(deadline)) {
+            Thread.sleep(100);
+            value = supplier.getAsLong();
+        }
+        return value;
+    }
+}
@@ -47,4 +47,74 @@ public final class CouchbaseSessionDataAccessProviderTest extends AbstractCouchb
         Assertions.assertEquals(session.getData(), retrievedSession.getData());
         Assertions.assertEquals(session.getId(), retrievedSession.getId());
     }
+
+    @Test
+    public void readSessionSlidPastItsOriginalExpiry() throws InterruptedException
+    {
+        var executor = new CouchbaseExecutor(getConfiguration(null));
+        readsSessionSlidPastItsOriginalExpiry(executor);
+    }
+
+    @Test
+    public void readSessionSlidPastItsOriginalExpiryThroughTheTouchQueue() throws InterruptedException
+    {
+        var configuration = getConfiguration(null);
+        configuration.sessionTouchWindow = 100L;
+        var executor = new CouchbaseExecutor(configuration);
+        readsSessionSlidPastItsOriginalExpiry(executor);
+    }
+
+    @Test
+    public void updateSessionDropsQueuedTouch()
+    {
+        var configuration = getConfiguration(null);
+        configuration.sessionTouchWindow = 60_000L;
+        var executor = new CouchbaseExecutor(configuration);
+        var dap = new CouchbaseSessionDataAccessProvider(executor);
+        var sessionId = UUID.randomUUID().toString();
+        dap.insertSession(new Session(sessionId, Instant.now().plus(Duration.ofMinutes(1L)), "{\"foo\": \"bar\")"));
+        dap.updateSessionExpiration(sessionId, Instant.now().plus(Duration.ofMinutes(2L)));
+        var updated = new Session(sessionId, Instant.now().plus(Duration.ofHours(1L)), "{\"foo\": \"baz\")");
+        dap.updateSession(updated);
+
+        executor.getSessionTouchQueue().flush();
+
+        Assertions.assertEquals(updated.getExpiresAt(), dap.getSessionById(sessionId).getExpiresAt());
+    }
+
+    @Test
+    public void readSessionWithExpiryStillQueued()
+    {
+        var configuration = getConfiguration(null);
+        configuration.sessionTouchWindow = 60_000L;
+        var executor = new CouchbaseExecutor(configuration);
+        var dap = new CouchbaseSessionDataAccessProvider(executor);
+        var sessionId = UUID.randomUUID().toString();
+        dap.insertSession(new Session(sessionId, Instant.now().plus(Duration.ofMinutes(1L)), "{\"foo\": \"bar\")"));
+        var slidExpiresAt = Instant.now().plus(Duration.ofHours(1L));
+        dap.updateSessionExpiration(sessionId, slidExpiresAt);
+
+        Assertions.assertEquals(slidExpiresAt, dap.getSessionById(sessionId).getExpiresAt());
+    }
+
+    private static void readsSessionSlidPastItsOriginalExpiry(CouchbaseExecutor executor) throws InterruptedException
+    {
+        var dap = new CouchbaseSessionDataAccessProvider(executor);
+        var sessionId = UUID.randomUUID().toString();
+        var session = new Session(sessionId, Instant.now().plus(Duration.ofSeconds(1L)), "{\"foo\": \"bar\")");
+        dap.insertSession(session);
+        var slidExpiresAt = Instant.now().plus(Duration.ofHours(1L));
+        dap.updateSessionExpiration(sessionId, slidExpiresAt);
+        if (executor.getSessionTouchQueue() != null)
+        {
+            executor.getSessionTouchQueue().flush();
+        }
+
+        Thread.sleep(1500L);
+
+        var retrievedSession = dap.getSessionById(sessionId);
+        Assertions.assertNotNull(retrievedSession);
+        Assertions.assertEquals(slidExpiresAt, retrievedSession.getExpiresAt());
+        Assertions.assertEquals(session.getData(), retrievedSession.getData());
+    }
 }
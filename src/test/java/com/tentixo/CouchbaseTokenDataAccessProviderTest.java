@@ -14,6 +14,7 @@
 
 package com.tentixo;
 
+import com.couchbase.client.java.kv.GetOptions;
 import com.tentixo.token.CouchbaseTokenDataAccessProvider;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -22,13 +23,14 @@ import se.curity.identityserver.sdk.data.authorization.TokenStatus;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 
 public final class CouchbaseTokenDataAccessProviderTest extends AbstractCouchbaseRunner
 {
 
-    private final CouchbaseTokenDataAccessProvider dap
-            = new CouchbaseTokenDataAccessProvider(new CouchbaseExecutor(getConfiguration(null)));
+    private final CouchbaseExecutor executor = new CouchbaseExecutor(getConfiguration(null));
+    private final CouchbaseTokenDataAccessProvider dap = new CouchbaseTokenDataAccessProvider(executor);
 
     @Test
     public void insertToken()
@@ -72,10 +74,46 @@ public final class CouchbaseTokenDataAccessProviderTest extends AbstractCouchbas
                 TokenStatus.issued, "secure-idp", "johndoe", StringOrArrayAdapter.of("tests"),
                 Instant.now().getEpochSecond(), Map.of("foo", "bar"));
         dap.create(token);
+        Assertions.assertEquals(TokenStatus.issued.name(), dap.getStatus(token.getTokenHash()));
         dap.setStatusByTokenHash(token.getTokenHash(), TokenStatus.revoked);
 
         var retrievedToken = dap.getByHash(token.getTokenHash());
         Assertions.assertNotNull(retrievedToken);
-        Assertions.assertEquals(token.getStatus(), retrievedToken.getStatus());
+        Assertions.assertEquals(TokenStatus.revoked, retrievedToken.getStatus());
+        Assertions.assertEquals(TokenStatus.revoked.name(), dap.getStatus(token.getTokenHash()));
+        Assertions.assertNull(dap.getStatus(UUID.randomUUID().toString()));
+    }
+
+    @Test
+    public void retainsTokenAfterStatusChange()
+    {
+        var id = UUID.randomUUID();
+        var expires = Instant.now().plus(Duration.ofSeconds(10L)).getEpochSecond();
+        var token = new TokenAdapter(id.toString(), String.valueOf(id.hashCode()), "qwe-123", "purpose","usage","format","openid",
+                Instant.now().getEpochSecond(), expires,
+                TokenStatus.issued, "secure-idp", "johndoe", StringOrArrayAdapter.of("tests"),
+                Instant.now().getEpochSecond(), Map.of("foo", "bar"));
+        dap.create(token);
+        dap.setStatusByTokenHash(token.getTokenHash(), TokenStatus.revoked);
+
+        var expiry = executor.getScope().collection(CouchbaseTokenDataAccessProvider.TOKEN_COLLECTION_NAME)
+                .get(token.getTokenHash(), GetOptions.getOptions().withExpiry(true))
+                .expiryTime();
+        Assertions.assertEquals(Optional.of(executor.getRetention().tokenExpiry(expires)), expiry);
+    }
+
+    @Test
+    public void doesNotReturnExpiredToken()
+    {
+        var id = UUID.randomUUID();
+        var token = new TokenAdapter(id.toString(), String.valueOf(id.hashCode()), "qwe-123", "purpose","usage","format","openid",
+                Instant.now().minus(Duration.ofSeconds(20L)).getEpochSecond(),
+                Instant.now().minus(Duration.ofSeconds(10L)).getEpochSecond(),
+                TokenStatus.issued, "secure-idp", "johndoe", StringOrArrayAdapter.of("tests"),
+                Instant.now().getEpochSecond(), Map.of("foo", "bar"));
+        dap.create(token);
+        Assertions.assertNull(dap.getByHash(token.getTokenHash()));
+        Assertions.assertNull(dap.getStatus(token.getTokenHash()));
+        Assertions.assertTrue(executor.getItemCounts().get(CouchbaseTokenDataAccessProvider.TOKEN_COLLECTION_NAME) > 0);
     }
 }
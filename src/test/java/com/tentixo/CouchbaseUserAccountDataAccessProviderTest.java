@@ -33,15 +33,19 @@ import se.curity.identityserver.sdk.data.query.ResourceQuery.Inclusions;
 import se.curity.identityserver.sdk.data.query.ResourceQueryResult;
 import se.curity.identityserver.sdk.data.update.AttributeReplacements;
 import se.curity.identityserver.sdk.data.update.AttributeUpdate;
+import se.curity.identityserver.sdk.errors.ConflictException;
 
 import java.time.Duration;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import static com.tentixo.testcontainers.CouchbaseContainerMetadata.BUCKET_NAME;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * You should have a document like below in the database:
@@ -56,10 +60,14 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 class CouchbaseUserAccountDataAccessProviderTest  extends AbstractCouchbaseRunner{
 
     private static CouchbaseUserAccountDataAccessProvider dataAccessProvider;
+    private static CouchbaseExecutor executor;
 
     @BeforeAll
     public static void setup() throws InterruptedException {
-        CouchbaseExecutor ce = new CouchbaseExecutor(getConfiguration(null));
+        var configuration = getConfiguration(null);
+        configuration.insertOnlyAccountCreation = true;
+        CouchbaseExecutor ce = new CouchbaseExecutor(configuration);
+        executor = ce;
         dataAccessProvider =
             new CouchbaseUserAccountDataAccessProvider(ce);
         Cluster c = Cluster.connect(couchbaseContainer.getConnectionString(), couchbaseContainer.getUsername(), couchbaseContainer.getPassword());
@@ -94,6 +102,23 @@ class CouchbaseUserAccountDataAccessProviderTest  extends AbstractCouchbaseRunne
         assertNotNull(result.get("email"));
     }
 
+    @Test
+    void getByUserNameReturnsOnlyIncludedAttributesTest() {
+        ResourceAttributes<?> result =
+                dataAccessProvider
+                        .getByUserName("morre",
+                                Inclusions.of(Set.of("email", "phone")));
+        assertEquals("morre@tentixo.com", result.get("email").getValue());
+        assertEquals("+375295672678", result.get("phone").getValue());
+        assertNull(result.get("username"));
+    }
+
+    @Test
+    void getByUnknownUserNameTest() {
+        assertNull(dataAccessProvider.getByUserName("unknown",
+                Inclusions.of(Set.of("email"))));
+    }
+
     @Test
     void getByEmailTest() {
         ResourceAttributes<?> result =
@@ -121,6 +146,16 @@ class CouchbaseUserAccountDataAccessProviderTest  extends AbstractCouchbaseRunne
         assertEquals("123", result.toMap().get("phone"));
     }
 
+    @Test
+    @Order(2)
+    void createDuplicateTest() {
+        assertThrows(ConflictException.class, () -> dataAccessProvider.create(
+                AccountAttributes.of(Attribute.of("userName", "newGuy"),
+                        Attribute.of("phone", "456"))));
+        assertEquals("123", dataAccessProvider.getByUserName("newGuy",
+                Inclusions.of(Set.of("phone"))).get("phone").getValue());
+    }
+
     @Test
     @Order(3)
     void deleteTest() {
@@ -141,6 +176,20 @@ class CouchbaseUserAccountDataAccessProviderTest  extends AbstractCouchbaseRunne
         assertEquals(1, result.getTotalResults());
     }
 
+    @Test
+    @Order(2)
+    void findPageTest() {
+        var firstPage = executor.findPage(null, 1);
+        assertEquals(1, firstPage.items().size());
+        assertNotNull(firstPage.nextCursor());
+        var secondPage = executor.findPage(firstPage.nextCursor(), 1);
+        assertEquals(1, secondPage.items().size());
+        assertNotEquals(firstPage.items().getFirst().getUserName(), secondPage.items().getFirst().getUserName());
+        var lastPage = executor.findPage(secondPage.nextCursor(), 1);
+        assertEquals(0, lastPage.items().size());
+        assertNull(lastPage.nextCursor());
+    }
+
     @Test
     void updateByUsernameTest() {
         ResourceAttributes<?> result = dataAccessProvider.update(
@@ -166,6 +215,30 @@ class CouchbaseUserAccountDataAccessProviderTest  extends AbstractCouchbaseRunne
                 Inclusions.of(Set.of("email", "phone")));
     }
 
+    @Test
+    void updateDoesNotAddMissingAttributesTest() {
+        ResourceAttributes<?> result = dataAccessProvider.update(
+                "morre", Map.of("username", "morre", "nickName", "mo"),
+                Inclusions.of(Set.of("email", "nickName")));
+        assertEquals("morre@tentixo.com", result.get("email").getValue());
+        assertNull(result.get("nickName"));
+        assertNull(dataAccessProvider.getByUserName("morre", Inclusions.of(Set.of("nickName"))));
+    }
+
+    @Test
+    void concurrentUpdatesTest() {
+        IntStream.range(0, 8).parallel()
+                .forEach(i -> dataAccessProvider.update(
+                        "morre", Map.of("phone", "+" + i),
+                        Inclusions.of(Set.of("phone"))));
+        dataAccessProvider.update(
+                AccountAttributes.of(Attribute.of("userName", "morre"),
+                        Attribute.of("phone", "+375295672678")),
+                Inclusions.of(Set.of("email", "phone")));
+        assertEquals("+375295672678", dataAccessProvider.getByUserName("morre",
+                Inclusions.of(Set.of("phone"))).get("phone").getValue());
+    }
+
     @Test
     void patchTest() {
         ResourceAttributes<?> result = dataAccessProvider.patch(
@@ -0,0 +1,75 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MissingLookupCacheTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final MissingLookupCache cache = new MissingLookupCache(true, Duration.ofSeconds(5), nanos::get);
+
+    @Test
+    void skipsLookupsOfRecentlyMissingDocuments() {
+        cache.get("nonces", "id", this::missing).block();
+        cache.get("nonces", "id", this::missing).block();
+
+        assertEquals(1, lookups.get());
+        assertEquals(1, cache.getAvoidedLookups());
+    }
+
+    @Test
+    void looksUpAgainAfterTimeToLive() {
+        cache.get("nonces", "id", this::missing).block();
+        nanos.addAndGet(Duration.ofSeconds(6).toNanos());
+        cache.get("nonces", "id", this::missing).block();
+
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void looksUpCreatedDocuments() {
+        cache.get("nonces", "id", this::missing).block();
+        cache.invalidate("nonces", "id");
+
+        assertEquals("found", cache.get("nonces", "id", this::found).block());
+    }
+
+    @Test
+    void keepsCollectionsApart() {
+        cache.get("nonces", "id", this::missing).block();
+
+        assertEquals("found", cache.get("tokens", "id", this::found).block());
+    }
+
+    private Mono<String> missing(String id) {
+        return Mono.fromRunnable(lookups::incrementAndGet);
+    }
+
+    private Mono<String> found(String id) {
+        return Mono.fromCallable(() -> {
+            lookups.incrementAndGet();
+            return "found";
+        });
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.couchbase.client.core.error.CouchbaseException;
+import com.couchbase.client.core.error.DocumentExistsException;
+import com.couchbase.client.java.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static com.tentixo.CouchbaseBucketDataAccessProvider.BUCKET_COLLECTION_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReactiveCouchbaseExecutorTest extends AbstractCouchbaseRunner {
+
+    private final ReactiveCouchbaseExecutor reactive = new CouchbaseExecutor(getConfiguration(null)).getReactive();
+
+    @Test
+    void getsDocumentsInOrderOfIds() {
+        var ids = IntStream.range(0, 20).mapToObj(i -> UUID.randomUUID().toString()).toList();
+        Flux.fromIterable(ids)
+                .flatMap(id -> reactive.insert(BUCKET_COLLECTION_NAME, id, JsonObject.create().put("id", id)))
+                .blockLast();
+
+        var missing = UUID.randomUUID().toString();
+        var requested = new ArrayList<>(ids);
+        requested.add(5, missing);
+        List<String> found = reactive.getAll(BUCKET_COLLECTION_NAME, requested, JsonObject.class)
+                .map(document -> document.getString("id"))
+                .collectList()
+                .block();
+
+        assertEquals(ids, found);
+        Flux.fromIterable(ids).flatMap(id -> reactive.remove(BUCKET_COLLECTION_NAME, id)).blockLast();
+    }
+
+    @Test
+    void getReturnsNothingForMissingDocument() {
+        assertNull(reactive.get(BUCKET_COLLECTION_NAME, UUID.randomUUID().toString(), JsonObject.class).block());
+    }
+
+    @Test
+    void insertFailsForExistingDocument() {
+        var id = UUID.randomUUID().toString();
+        reactive.insert(BUCKET_COLLECTION_NAME, id, JsonObject.create()).block();
+        assertThrows(DocumentExistsException.class,
+                () -> reactive.insert(BUCKET_COLLECTION_NAME, id, JsonObject.create()).block());
+        reactive.remove(BUCKET_COLLECTION_NAME, id).block();
+    }
+
+    @Test
+    void abandonsOperationsAfterTimeout() {
+        var configuration = getConfiguration(null);
+        configuration.operationTimeout = 1L;
+        var impatient = new CouchbaseExecutor(configuration).getReactive();
+        var ids = IntStream.range(0, 200).mapToObj(i -> UUID.randomUUID().toString()).toList();
+        assertThrows(CouchbaseException.class,
+                () -> impatient.getAll(BUCKET_COLLECTION_NAME, ids, JsonObject.class).collectList().block());
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.tentixo;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RetentionTest {
+
+    private final Retention retention = new Retention(Duration.ofHours(1), Duration.ofDays(365), Duration.ofDays(2));
+
+    @Test
+    void addsRetainDurationToExpiry() {
+        assertEquals(Instant.ofEpochSecond(1_700_000_000L).plus(Duration.ofDays(2)),
+                retention.tokenExpiry(1_700_000_000L));
+        assertEquals(Instant.ofEpochSecond(1_700_000_000L).plus(Duration.ofDays(365)),
+                retention.delegationExpiry(1_700_000_000L));
+        assertEquals(Instant.ofEpochSecond(1_700_003_600L),
+                retention.sessionExpiry(Instant.ofEpochSecond(1_700_000_000L)));
+    }
+
+    @Test
+    void capsExpiryAtLatestSupportedExpiry() {
+        assertEquals(Retention.MAX_EXPIRY, retention.delegationExpiry(Long.MAX_VALUE));
+        assertEquals(Retention.MAX_EXPIRY, retention.delegationExpiry(Retention.MAX_EXPIRY.getEpochSecond() - 60));
+        var forever = new Retention(Duration.ofSeconds(Long.MAX_VALUE), Duration.ZERO, Duration.ZERO);
+        assertEquals(Retention.MAX_EXPIRY, forever.sessionExpiry(Instant.now()));
+    }
+}
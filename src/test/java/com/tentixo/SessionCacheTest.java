@@ -0,0 +1,88 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import se.curity.identityserver.sdk.data.Session;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionCacheTest {
+
+    private static final Instant NOW = Instant.parse("2024-06-01T12:00:00Z");
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final SessionCache cache = new SessionCache(true, 1024 * 1024, Duration.ofSeconds(60), nanos::get,
+            Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    void servesWrittenSessionsWithoutLoading() {
+        cache.put(new Session("id", NOW.plusSeconds(600), "data"));
+
+        assertEquals("data", cache.get("id", this::load).block().getData());
+        assertEquals(0, loads.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void evictsSessionsAtTheirExpiration() {
+        cache.put(new Session("id", NOW.plusSeconds(600), "data"));
+        cache.updateExpiration("id", NOW.plusSeconds(10));
+        nanos.addAndGet(Duration.ofSeconds(11).toNanos());
+
+        cache.get("id", this::load).block();
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void keepsSessionsForNoLongerThanTimeToLive() {
+        cache.get("id", this::load).block();
+        nanos.addAndGet(Duration.ofSeconds(61).toNanos());
+        cache.get("id", this::load).block();
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void isBoundedByBytes() {
+        var small = new SessionCache(true, 10 * 1024, Duration.ofSeconds(60), nanos::get,
+                Clock.fixed(NOW, ZoneOffset.UTC));
+        var data = "x".repeat(1000);
+        for (int i = 0; i < 100; i++) {
+            small.put(new Session("id" + i, NOW.plusSeconds(600), data));
+        }
+        small.cleanUp();
+
+        assertTrue(small.size() * SessionCache.weigh("id0", new Session("id0", NOW, data)) <= 10 * 1024);
+    }
+
+    private Mono<Session> load(String id) {
+        return Mono.fromCallable(() -> {
+            loads.incrementAndGet();
+            return new Session(id, NOW.plusSeconds(600), "loaded");
+        });
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo;
+
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SessionTouchQueueTest {
+
+    private static final Instant NOW = Instant.parse("2024-06-01T12:00:00Z");
+
+    private final Map<String, Instant> touched = new ConcurrentHashMap<>();
+    private final SessionTouchQueue queue = new SessionTouchQueue(
+            (id, expiry) -> Mono.fromRunnable(() -> touched.merge(id, expiry, (first, second) -> {
+                throw new AssertionError("Session touched twice: " + id);
+            })),
+            Duration.ofHours(1), 4);
+
+    @Test
+    void touchesEachSessionOnceWithItsLatestExpiry() {
+        queue.enqueue("a", NOW.plusSeconds(10));
+        queue.enqueue("a", NOW.plusSeconds(20));
+        queue.enqueue("b", NOW.plusSeconds(30));
+        assertEquals(2, queue.getQueueDepth());
+
+        queue.flush();
+
+        assertEquals(Map.of("a", NOW.plusSeconds(20), "b", NOW.plusSeconds(30)), touched);
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(1, queue.getFlushes());
+        queue.close();
+    }
+
+    @Test
+    void doesNotTouchCancelledSessions() {
+        queue.enqueue("a", NOW.plusSeconds(10));
+        queue.cancel("a");
+        queue.flush();
+
+        assertEquals(Map.of(), touched);
+        queue.close();
+    }
+
+    @Test
+    void drainsOnClose() {
+        queue.enqueue("a", NOW.plusSeconds(10));
+        queue.close();
+
+        assertEquals(Map.of("a", NOW.plusSeconds(10)), touched);
+    }
+
+    @Test
+    void ignoresRemovedSessions() {
+        var removed = new SessionTouchQueue((id, expiry) -> Mono.error(new DocumentNotFoundException(null)),
+                Duration.ofHours(1), 4);
+        removed.enqueue("a", NOW.plusSeconds(10));
+        removed.close();
+
+        assertEquals(0, removed.getQueueDepth());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.configuration;
+
+import com.couchbase.client.java.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexCommonsTest {
+
+    @Test
+    void findsIndexScansInPlan() {
+        var plan = JsonObject.fromJson("""
+                {
+                  "plan": {
+                    "#operator": "Sequence",
+                    "~children": [
+                      {
+                        "#operator": "DistinctScan",
+                        "scan": {
+                          "#operator": "IndexScan3",
+                          "index": "idx_accounts_emails",
+                          "keyspace": "curity-accounts"
+                        }
+                      },
+                      {
+                        "#operator": "Fetch",
+                        "keyspace": "curity-accounts"
+                      }
+                    ]
+                  }
+                }
+                """);
+        assertEquals(Set.of("idx_accounts_emails"), IndexCommons.indexesUsedBy(plan));
+    }
+
+    @Test
+    void findsNoIndexWithoutScan() {
+        var plan = JsonObject.fromJson("""
+                {
+                  "plan": {
+                    "#operator": "Sequence",
+                    "~children": [
+                      {
+                        "#operator": "ValueScan",
+                        "values": []
+                      }
+                    ]
+                  }
+                }
+                """);
+        assertTrue(IndexCommons.indexesUsedBy(plan).isEmpty());
+    }
+
+    @Test
+    void findsSortInPlan() {
+        var plan = JsonObject.fromJson("""
+                {
+                  "plan": {
+                    "#operator": "Sequence",
+                    "~children": [
+                      {
+                        "#operator": "IndexScan3",
+                        "index": "idx_delegations_status_created"
+                      },
+                      {
+                        "#operator": "Order",
+                        "sort_terms": []
+                      }
+                    ]
+                  }
+                }
+                """);
+        assertTrue(IndexCommons.sortsRows(plan));
+    }
+
+    @Test
+    void findsNoSortInIndexOrderedPlan() {
+        var plan = JsonObject.fromJson("""
+                {
+                  "plan": {
+                    "#operator": "Sequence",
+                    "~children": [
+                      {
+                        "#operator": "IndexScan3",
+                        "index": "idx_delegations_status_created"
+                      },
+                      {
+                        "#operator": "Limit",
+                        "expr": "$limit"
+                      }
+                    ]
+                  }
+                }
+                """);
+        assertFalse(IndexCommons.sortsRows(plan));
+    }
+
+    @Test
+    void rendersDeferredCreateStatement() {
+        var index = new SecondaryIndex("idx_delegations_owner", "curity-delegations", "`owner`");
+        assertEquals("CREATE INDEX `idx_delegations_owner` IF NOT EXISTS ON `curity`.`_default`.`curity-delegations`" +
+                     "(`owner`) WITH {\"defer_build\": true}", index.createStatement("curity", "_default"));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import org.junit.jupiter.api.Test;
+import se.curity.identityserver.sdk.data.query.Filter.AttributeOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DelegationQueryTest {
+
+    @Test
+    void listsInKeyOrderUpToTheCapWithoutQuery() {
+        var query = DelegationQuery.of(null);
+        assertEquals("", query.whereClause());
+        assertEquals("META().id", query.orderByClause());
+        assertEquals(DelegationQuery.MAX_COUNT, query.parameters().getLong("limit"));
+        assertEquals(0L, query.parameters().getLong("offset"));
+    }
+
+    @Test
+    void passesValuesAsParameters() {
+        var query = DelegationQuery.of(null);
+        assertEquals("`clientId` = $p0", query.comparison("clientId", AttributeOperator.EQ, "my-client"));
+        assertEquals("`created` >= $p1", query.comparison("CREATED", AttributeOperator.GE, 1700000000L));
+        assertEquals("`owner` IS VALUED", query.comparison("owner", AttributeOperator.PR, null));
+        assertEquals("my-client", query.parameters().getString("p0"));
+        assertEquals(1700000000L, query.parameters().getLong("p1"));
+    }
+
+    @Test
+    void escapesLikeWildcards() {
+        var query = DelegationQuery.of(null);
+        assertEquals("`scope` LIKE $p0", query.comparison("scope", AttributeOperator.SW, "a_b%"));
+        assertEquals("`owner` LIKE $p1", query.comparison("owner", AttributeOperator.EW, "x"));
+        assertEquals("a\\_b\\%%", query.parameters().getString("p0"));
+        assertEquals("%x", query.parameters().getString("p1"));
+    }
+
+    @Test
+    void rejectsUnknownAttributes() {
+        assertThrows(IllegalArgumentException.class,
+                () -> DelegationQuery.of(null).comparison("claims` OR TRUE --", AttributeOperator.EQ, "x"));
+    }
+}
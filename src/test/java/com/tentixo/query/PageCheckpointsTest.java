@@ -0,0 +1,81 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageCheckpointsTest {
+
+    private static final String PREFIX = "node::user::personal_info::";
+
+    @Test
+    void findsClosestCheckpointBeforeOffset() {
+        var checkpoints = new PageCheckpoints<String>(10, Duration.ofMinutes(1));
+        checkpoints.put(10, PREFIX + "j");
+        checkpoints.put(20, PREFIX + "t");
+        assertEquals(Map.entry(10L, PREFIX + "j"), checkpoints.floor(15).orElseThrow());
+        assertEquals(Map.entry(20L, PREFIX + "t"), checkpoints.floor(20).orElseThrow());
+        assertTrue(checkpoints.floor(5).isEmpty());
+    }
+
+    @Test
+    void invalidatesCheckpointsAfterChangedKey() {
+        var checkpoints = new PageCheckpoints<String>(10, Duration.ofMinutes(1));
+        checkpoints.put(10, PREFIX + "j");
+        checkpoints.put(20, PREFIX + "t");
+        checkpoints.invalidate(PREFIX + "m");
+        assertEquals(1, checkpoints.size());
+        assertEquals(Map.entry(10L, PREFIX + "j"), checkpoints.floor(25).orElseThrow());
+    }
+
+    @Test
+    void expiresCheckpoints() {
+        var now = Instant.parse("2024-01-01T00:00:00Z");
+        var checkpoints = new PageCheckpoints<String>(10, Duration.ofMinutes(1), Clock.fixed(now, ZoneOffset.UTC));
+        checkpoints.put(10, PREFIX + "j");
+        var later = new PageCheckpoints<String>(10, Duration.ZERO, Clock.fixed(now, ZoneOffset.UTC));
+        later.put(10, PREFIX + "j");
+        assertTrue(checkpoints.floor(10).isPresent());
+        assertTrue(later.floor(10).isEmpty());
+    }
+
+    @Test
+    void keepsAtMostMaxSizeCheckpoints() {
+        var checkpoints = new PageCheckpoints<String>(2, Duration.ofMinutes(1));
+        checkpoints.put(1, PREFIX + "a");
+        checkpoints.put(2, PREFIX + "b");
+        checkpoints.put(3, PREFIX + "c");
+        assertEquals(2, checkpoints.size());
+        assertTrue(checkpoints.floor(1).isEmpty());
+    }
+
+    @Test
+    void roundTripsCursors() {
+        var cursor = PageCursor.encode(PREFIX + "morre");
+        assertEquals(PREFIX + "morre", PageCursor.decode(cursor, PREFIX));
+        assertThrows(IllegalArgumentException.class, () -> PageCursor.decode(PageCursor.encode("other::key"), PREFIX));
+        assertEquals("node::user::personal_info:;", PageCursor.upperBound(PREFIX));
+    }
+}
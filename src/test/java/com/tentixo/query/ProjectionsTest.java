@@ -0,0 +1,98 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import org.junit.jupiter.api.Test;
+import se.curity.identityserver.sdk.data.query.ResourceQuery.Exclusions;
+import se.curity.identityserver.sdk.data.query.ResourceQuery.Inclusions;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProjectionsTest {
+
+    private final Keyspace accounts = new Keyspace("curity", "_default", "curity-accounts");
+
+    @Test
+    void pushesInclusionsDown() {
+        var projection = new Projections().get(Inclusions.of(Set.of("phone", "email")));
+        assertTrue(projection.isPushedDown());
+        assertTrue(projection.fitsLookupIn());
+        assertEquals("`email`, `phone`", projection.selectList(accounts));
+        assertEquals(2, projection.lookupSpecs().size());
+    }
+
+    @Test
+    void readsWholeDocumentWithoutEnumeration() {
+        var projection = new Projections().get(null);
+        assertSame(Projection.ALL, projection);
+        assertEquals("`curity-accounts`.*", projection.selectList(accounts));
+    }
+
+    @Test
+    void doesNotPushDownUnsafeNames() {
+        var projection = new Projections().get(Inclusions.of(Set.of("email", "x` FROM secrets --")));
+        assertFalse(projection.isPushedDown());
+        assertEquals("`curity-accounts`.*", projection.selectList(accounts));
+        Map<String, Object> document = new HashMap<>(Map.of("email", "a@b.c", "phone", "123"));
+        assertEquals(Map.of("email", "a@b.c"), projection.apply(document));
+    }
+
+    @Test
+    void removesExclusionsFromWholeDocument() {
+        var projection = new Projections().get(Exclusions.of(Set.of("password", "phone")));
+        assertFalse(projection.isPushedDown());
+        assertEquals("`curity-accounts`.*", projection.selectList(accounts));
+        Map<String, Object> document = new HashMap<>(Map.of("email", "a@b.c", "phone", "123", "password", "x"));
+        assertEquals(Map.of("email", "a@b.c"), projection.apply(document));
+    }
+
+    @Test
+    void keepsInclusionsAndExclusionsOfTheSameAttributesApart() {
+        var projections = new Projections();
+        var inclusions = projections.get(Inclusions.of(Set.of("email")));
+        var exclusions = projections.get(Exclusions.of(Set.of("email")));
+        Map<String, Object> document = new HashMap<>(Map.of("email", "a@b.c", "phone", "123"));
+        assertEquals(Map.of("phone", "123"), exclusions.apply(document));
+        assertEquals(2, projections.size());
+        assertSame(inclusions, projections.get(Inclusions.of(Set.of("email"))));
+    }
+
+    @Test
+    void cachesProjectionPerAttributeSet() {
+        var projections = new Projections();
+        var first = projections.get(Inclusions.of(Set.of("email", "phone")));
+        var second = projections.get(Inclusions.of(Set.of("phone", "email")));
+        assertSame(first, second);
+        assertEquals(1, projections.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedProjection() {
+        var projections = new Projections(2);
+        var email = projections.get(Inclusions.of(Set.of("email")));
+        projections.get(Inclusions.of(Set.of("phone")));
+        projections.get(Inclusions.of(Set.of("email")));
+        projections.get(Inclusions.of(Set.of("name")));
+        assertEquals(2, projections.size());
+        assertSame(email, projections.get(Inclusions.of(Set.of("email"))));
+    }
+}
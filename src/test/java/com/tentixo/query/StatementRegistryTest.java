@@ -0,0 +1,84 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.query;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class StatementRegistryTest {
+
+    private final Keyspace accounts = new Keyspace("curity", "_default", "curity-accounts");
+
+    @Test
+    void rendersStatementForKeyspace() {
+        var registry = new StatementRegistry();
+        var statement = registry.get(Statement.ACCOUNT_BY_PARAMETER, accounts, "userName",
+                Projection.ALL.selectList(accounts));
+        assertEquals("SELECT `curity-accounts`.* FROM `curity`.`_default`.`curity-accounts`" +
+                     " WHERE `userName` = $value AND CONTAINS(META().id, $prefix)", statement);
+    }
+
+    @Test
+    void matchesAnyValueOfMultiValuedParameter() {
+        var registry = new StatementRegistry();
+        var statement = registry.get(Statement.accountByParameter(true, true), accounts, "emails",
+                Projection.ALL.selectList(accounts));
+        assertEquals("SELECT `curity-accounts`.* FROM `curity`.`_default`.`curity-accounts`" +
+                     " WHERE ANY v IN `emails` SATISFIES LOWER(v.`value`) = $value END" +
+                     " AND CONTAINS(META().id, $prefix)", statement);
+    }
+
+    @Test
+    void doesNotSpliceValuesIntoStatement() {
+        var registry = new StatementRegistry();
+        var statement = registry.get(Statement.ACCOUNT_UPDATE_PASSWORD, accounts);
+        assertFalse(statement.contains("node::user::personal_info::"));
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        var registry = new StatementRegistry();
+        var first = registry.get(Statement.ACCOUNT_FIND_PAGE, accounts);
+        var second = registry.get(Statement.ACCOUNT_FIND_PAGE, accounts);
+        assertSame(first, second);
+        assertEquals(1, registry.getMisses());
+        assertEquals(1, registry.getHits());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void keysStatementsByKeyspaceAndArguments() {
+        var registry = new StatementRegistry();
+        var otherScope = new Keyspace("curity", "tenant", "curity-accounts");
+        var byUserName = registry.get(Statement.ACCOUNT_BY_PARAMETER, accounts, "userName", "*");
+        var byEmail = registry.get(Statement.ACCOUNT_BY_PARAMETER, accounts, "emails", "*");
+        var otherScopeStatement = registry.get(Statement.ACCOUNT_BY_PARAMETER, otherScope, "userName", "*");
+        assertNotEquals(byUserName, byEmail);
+        assertNotEquals(byUserName, otherScopeStatement);
+        assertEquals(3, registry.getMisses());
+        assertEquals(0, registry.getHits());
+    }
+
+    @Test
+    void countsReprepares() {
+        var registry = new StatementRegistry();
+        registry.recordReprepare();
+        assertEquals(1, registry.getReprepares());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.tentixo.token;
+
+import com.tentixo.TokenAdapter;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import se.curity.identityserver.sdk.data.authorization.Token;
+import se.curity.identityserver.sdk.data.authorization.TokenStatus;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TokenCacheTest {
+
+    private static final Instant NOW = Instant.parse("2024-06-01T12:00:00Z");
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final TokenCache cache = new TokenCache(true, 100, Duration.ofSeconds(30), nanos::get,
+            Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    void servesRepeatedReadsFromCache() {
+        var token = token("hash", NOW.plusSeconds(3600));
+        cache.get("hash", hash -> load(token)).block();
+        cache.get("hash", hash -> load(token)).block();
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    @Test
+    void expiresEntriesAfterTimeToLive() {
+        var token = token("hash", NOW.plusSeconds(3600));
+        cache.get("hash", hash -> load(token)).block();
+        nanos.addAndGet(Duration.ofSeconds(31).toNanos());
+        cache.get("hash", hash -> load(token)).block();
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void doesNotCacheTokensPastTheirExpiry() {
+        var token = token("hash", NOW.plusSeconds(5));
+        cache.get("hash", hash -> load(token)).block();
+        nanos.addAndGet(Duration.ofSeconds(6).toNanos());
+        cache.get("hash", hash -> load(token)).block();
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void reloadsInvalidatedTokens() {
+        var token = token("hash", NOW.plusSeconds(3600));
+        cache.get("hash", hash -> load(token)).block();
+        cache.invalidate("hash");
+        cache.get("hash", hash -> load(token)).block();
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void doesNotCacheMissingTokens() {
+        assertNull(cache.get("hash", hash -> Mono.<Token>empty().doOnSubscribe(s -> loads.incrementAndGet()))
+                .block());
+        assertNull(cache.get("hash", hash -> Mono.<Token>empty().doOnSubscribe(s -> loads.incrementAndGet()))
+                .block());
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void loadsEveryReadWhenDisabled() {
+        var disabled = new TokenCache(false, 100, Duration.ofSeconds(30));
+        var token = token("hash", NOW.plusSeconds(3600));
+        disabled.get("hash", hash -> load(token)).block();
+        disabled.get("hash", hash -> load(token)).block();
+
+        assertEquals(2, loads.get());
+    }
+
+    private Mono<Token> load(Token token) {
+        return Mono.fromCallable(() -> {
+            loads.incrementAndGet();
+            return token;
+        });
+    }
+
+    private static Token token(String hash, Instant expires) {
+        return new TokenAdapter("id", hash, "delegation", "access_token", "bearer", "opaque", "openid",
+                NOW.getEpochSecond(), expires.getEpochSecond(), TokenStatus.issued, "issuer", "johndoe", null,
+                NOW.getEpochSecond(), Map.of());
+    }
+}